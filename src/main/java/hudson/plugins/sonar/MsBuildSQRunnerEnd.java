@@ -33,6 +33,7 @@ import hudson.plugins.sonar.action.SonarMarkerAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.utils.BuilderUtils;
+import hudson.plugins.sonar.utils.ScannerOutputTap;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
@@ -41,6 +42,7 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import jenkins.model.Jenkins;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -77,14 +79,16 @@ public class MsBuildSQRunnerEnd extends AbstractMsBuildSQRunner {
     args.add(scannerPath);
     addArgs(args, env, sonarInstallation, run);
 
-    int result = launcher.launch().cmds(args).envs(env).stdout(listener).pwd(BuilderUtils.getModuleRoot(run, workspace)).join();
+    int result;
+    ScannerOutputTap scannerOutput = new ScannerOutputTap(CloseShieldOutputStream.wrap(listener.getLogger()), run.getCharset());
+    try (scannerOutput) {
+      result = launcher.launch().cmds(args).envs(env).stdout(scannerOutput).pwd(BuilderUtils.getModuleRoot(run, workspace)).join();
+    }
 
+    addBadge(run, listener, workspace, sonarInstallation, scannerOutput.getResult());
     if (result != 0) {
-      addBadge(run, listener, workspace, sonarInstallation);
       throw new AbortException(Messages.MSBuildScanner_ExecFailed(result));
     }
-
-    addBadge(run, listener, workspace, sonarInstallation);
   }
 
   private void addArgs(ArgumentListBuilder args, EnvVars env, SonarInstallation sonarInstallation, Run<?, ?> run) {
@@ -111,14 +115,15 @@ public class MsBuildSQRunnerEnd extends AbstractMsBuildSQRunner {
 
     String token = inst.getServerAuthenticationToken(run);
     if (!StringUtils.isBlank(token)) {
-      map.put(SonarUtils.getTokenProperty(inst, new HttpClient(OkHttpClientSingleton.getInstance())), token);
+      map.put(SonarUtils.getTokenProperty(inst, new HttpClient(OkHttpClientSingleton.getInstance(inst))), token);
     }
 
     return map;
   }
 
-  private static void addBadge(Run<?, ?> run, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation) throws IOException, InterruptedException {
-    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInstallation);
+  private static void addBadge(Run<?, ?> run, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, ScannerOutputTap.Result scannerOutput)
+    throws IOException, InterruptedException {
+    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInstallation, scannerOutput);
   }
 
   @Override
@@ -23,6 +23,8 @@ import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -33,7 +35,9 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.console.ConsoleLogFilter;
+import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
 import hudson.model.FreeStyleProject;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
@@ -45,8 +49,11 @@ import hudson.model.queue.Tasks;
 import hudson.plugins.sonar.action.SonarMarkerAction;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
+import hudson.plugins.sonar.utils.AgentMaskingLauncher;
 import hudson.plugins.sonar.utils.Logger;
 import hudson.plugins.sonar.utils.MaskPasswordsOutputStream;
+import hudson.plugins.sonar.utils.ScannerOutputTap;
+import hudson.plugins.sonar.utils.SecretMatcher;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.security.ACL;
 import hudson.tasks.BuildWrapperDescriptor;
@@ -57,6 +64,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -65,6 +73,8 @@ import java.util.Map;
 import java.util.UUID;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildWrapper;
+import jenkins.util.JenkinsJVM;
+import jenkins.util.SystemProperties;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
@@ -76,9 +86,25 @@ import org.kohsuke.stapler.QueryParameter;
 import static org.apache.commons.lang3.StringEscapeUtils.escapeJson;
 
 public class SonarBuildWrapper extends SimpleBuildWrapper {
+  /**
+   * Scanner output captured by the log filters of the withSonarQubeEnv blocks currently running on this controller,
+   * so that the disposer knows the analysis metadata without looking for report-task.txt in the workspace.
+   * The output of a block whose disposer never ran, because the build was aborted or Jenkins restarted, expires: the
+   * log filters of a pipeline may be created again for each step, so they can't be the only ones holding it.
+   */
+  private static final Cache<String, ScannerOutputTap.Result> SCANNER_OUTPUTS = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterAccess(Duration.ofDays(1))
+    .build();
+  /**
+   * Mask the output of the processes launched on agents before it is sent to the controller.
+   */
+  static final boolean MASK_ON_AGENT = SystemProperties.getBoolean(SonarBuildWrapper.class.getName() + ".maskOnAgent");
+
   private String installationName;
   private String credentialsId;
   private boolean envOnly = false;
+  private transient String scannerOutputId;
 
   @DataBoundConstructor
   public SonarBuildWrapper(@Nullable String installationName) {
@@ -115,13 +141,17 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
     Logger.LOG.info(msg);
     listener.getLogger().println(msg);
 
-    context.getEnv().putAll(createVars(installation, getCredentialsId(), initialEnvironment, build, new HttpClient(OkHttpClientSingleton.getInstance())));
+    if (MASK_ON_AGENT && !(build instanceof AbstractBuild)) {
+      Logger.LOG.info(() -> "Output of " + build + " is masked on the controller: masking on the agent only applies to freestyle jobs");
+    }
+
+    context.getEnv().putAll(createVars(installation, getCredentialsId(), initialEnvironment, build, new HttpClient(OkHttpClientSingleton.getInstance(installation))));
 
     if (envOnly) {
       return;
     }
 
-    context.setDisposer(new AddBuildInfo(installation, getCredentialsId()));
+    context.setDisposer(new AddBuildInfo(installation, getCredentialsId(), getScannerOutputKey(build)));
 
     build.addAction(new SonarMarkerAction());
   }
@@ -153,14 +183,8 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
     if (!token.isEmpty()) {
       sb.append(", \"").append(SonarUtils.getTokenProperty(inst, client)).append("\" : \"").append(escapeJson(token)).append("\"");
     }
-    String additionalAnalysisProperties = inst.getAdditionalAnalysisProperties();
-    if (additionalAnalysisProperties != null) {
-      for (String pair : StringUtils.split(additionalAnalysisProperties)) {
-        String[] keyValue = StringUtils.split(pair, "=");
-        if (keyValue.length == 2) {
-          sb.append(", \"").append(escapeJson(keyValue[0])).append("\" : \"").append(escapeJson(initialEnvironment.expand(keyValue[1]))).append("\"");
-        }
-      }
+    for (Map.Entry<String, String> property : inst.getAdditionalAnalysisPropertiesMap().entrySet()) {
+      sb.append(", \"").append(escapeJson(property.getKey())).append("\" : \"").append(escapeJson(initialEnvironment.expand(property.getValue()))).append("\"");
     }
     sb.append("}");
 
@@ -191,14 +215,53 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
 
     Logger.LOG.info(Messages.SonarBuildWrapper_MaskingPasswords());
 
+    Charset charset = build.getCharset();
+    return new SonarQubePasswordLogFilter(createPasswordsMatcher(build, inst, charset), charset.name(), envOnly ? null : getScannerOutputKey(build));
+  }
+
+  /**
+   * With {@link #MASK_ON_AGENT}, the processes launched on agents by the build steps of a freestyle job have their output
+   * masked on the agent. The log filter still masks what is printed on the controller.
+   * <p>
+   * Called before {@link #setUp}, which reports an invalid installation or credential: the launcher is left as is then.
+   */
+  @Override
+  public Launcher decorateLauncher(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException, Run.RunnerAbortedException {
+    SonarInstallation inst = SonarInstallation.get(getInstallationName());
+    if (!MASK_ON_AGENT || inst == null) {
+      return launcher;
+    }
+    Charset charset = build.getCharset();
+    SecretMatcher passwordsMatcher;
+    try {
+      passwordsMatcher = createPasswordsMatcher(build, inst, charset);
+    } catch (IllegalStateException e) {
+      Logger.LOG.info(() -> "Output of " + build + " is masked on the controller: " + e.getMessage());
+      return launcher;
+    }
+    return passwordsMatcher != null ? new AgentMaskingLauncher(launcher, passwordsMatcher, charset) : launcher;
+  }
+
+  @CheckForNull
+  private SecretMatcher createPasswordsMatcher(Run<?, ?> build, SonarInstallation inst, Charset charset) {
     List<String> passwords = new ArrayList<>();
 
     String token = getOrDefault(SonarUtils.getAuthenticationToken(build, inst, credentialsId), "");
     if (!StringUtils.isBlank(token)) {
-      passwords.add(token);
+      passwords.addAll(SecretMatcher.withEncodedForms(token));
     }
 
-    return new SonarQubePasswordLogFilter(passwords, build.getCharset().name());
+    return SecretMatcher.compile(passwords, charset);
+  }
+
+  /**
+   * Identifies this block in this build, shared by the log filter and the disposer.
+   */
+  private synchronized String getScannerOutputKey(Run<?, ?> build) {
+    if (scannerOutputId == null) {
+      scannerOutputId = UUID.randomUUID().toString();
+    }
+    return build.getExternalizableId() + "#" + scannerOutputId;
   }
 
   private static final class AddBuildInfo extends Disposer {
@@ -209,15 +272,20 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
 
     private final String credentialsId;
 
-    public AddBuildInfo(SonarInstallation installation, @Nullable String credentialsId) {
+    private final String scannerOutputKey;
+
+    public AddBuildInfo(SonarInstallation installation, @Nullable String credentialsId, String scannerOutputKey) {
       this.installation = installation;
       this.credentialsId = credentialsId;
+      this.scannerOutputKey = scannerOutputKey;
     }
 
     @Override
     public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+      // null when the log filter did not run on this controller (or before a restart)
+      ScannerOutputTap.Result scannerOutput = scannerOutputKey != null ? SCANNER_OUTPUTS.asMap().remove(scannerOutputKey) : null;
       // null result means success so far. If no logs are found, it's probably because it was simply skipped
-      SonarUtils.addBuildInfoTo(build, listener, workspace, installation, credentialsId, build.getResult() == null);
+      SonarUtils.addBuildInfoTo(build, listener, workspace, installation, credentialsId, build.getResult() == null, scannerOutput);
     }
   }
 
@@ -225,17 +293,42 @@ public class SonarBuildWrapper extends SimpleBuildWrapper {
 
     private static final long serialVersionUID = 1L;
 
-    private final List<String> passwords;
+    /**
+     * Shared with the other filters masking the same secrets, and sent to the agents in its compact form.
+     */
+    @Nullable
+    private SecretMatcher passwordsMatcher;
+    /**
+     * @deprecated only read from filters serialized by older versions, replaced by {@link #passwordsMatcher}
+     */
+    @Deprecated
+    private List<String> passwords;
     private final String consoleCharset;
+    private final String scannerOutputKey;
 
-    public SonarQubePasswordLogFilter(List<String> passwords, String consoleCharset) {
-      this.passwords = passwords;
+    public SonarQubePasswordLogFilter(@Nullable SecretMatcher passwordsMatcher, String consoleCharset, @Nullable String scannerOutputKey) {
+      this.passwordsMatcher = passwordsMatcher;
       this.consoleCharset = consoleCharset;
+      this.scannerOutputKey = scannerOutputKey;
+    }
+
+    private Object readResolve() {
+      if (passwords != null) {
+        passwordsMatcher = SecretMatcher.compile(passwords, Charset.forName(consoleCharset));
+        passwords = null;
+      }
+      return this;
     }
 
     @Override
     public OutputStream decorateLogger(Run ignore, OutputStream logger) throws IOException, InterruptedException {
-      return new MaskPasswordsOutputStream(logger, Charset.forName(consoleCharset), passwords);
+      Charset charset = Charset.forName(consoleCharset);
+      OutputStream out = logger;
+      // the captured output is only useful to the disposer if it stays on the controller
+      if (scannerOutputKey != null && JenkinsJVM.isJenkinsJVM()) {
+        out = new ScannerOutputTap(out, charset, SCANNER_OUTPUTS.get(scannerOutputKey, k -> new ScannerOutputTap.Result()));
+      }
+      return new MaskPasswordsOutputStream(out, charset, passwordsMatcher);
     }
 
   }
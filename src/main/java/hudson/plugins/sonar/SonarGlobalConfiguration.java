@@ -28,7 +28,9 @@ import hudson.ExtensionList;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.plugins.sonar.SonarPublisher.DescriptorImpl;
+import hudson.plugins.sonar.client.WsClient;
 import hudson.plugins.sonar.utils.Logger;
+import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -54,6 +56,10 @@ import org.kohsuke.stapler.StaplerRequest2;
 @Extension(ordinal = 100)
 public class SonarGlobalConfiguration extends GlobalConfiguration implements Serializable {
 
+  public static final int DEFAULT_WEBHOOK_CACHE_TTL_MINUTES = 120;
+  public static final int DEFAULT_WEBHOOK_CACHE_MAX_ENTRIES = 10000;
+  public static final int DEFAULT_WEBHOOK_CACHE_MAX_SIZE_MB = 64;
+
   private final transient Supplier<Jenkins> supplyJenkins;
 
   @CopyOnWrite
@@ -61,6 +67,10 @@ public class SonarGlobalConfiguration extends GlobalConfiguration implements Ser
   private volatile boolean buildWrapperEnabled = false;
   boolean dataMigrated = false;
   private boolean credentialsMigrated;
+  // 0 stands for the default, including in configurations saved before these settings existed
+  private volatile int webhookCacheTtlMinutes;
+  private volatile int webhookCacheMaxEntries;
+  private volatile int webhookCacheMaxSizeMb;
 
   public SonarGlobalConfiguration() {
     this(
@@ -87,15 +97,57 @@ public class SonarGlobalConfiguration extends GlobalConfiguration implements Ser
   }
 
   public void setInstallations(SonarInstallation... installations) {
-    this.installations = installations;
+    replaceInstallations(installations);
     save();
   }
 
+  private void replaceInstallations(SonarInstallation[] installations) {
+    SonarInstallation[] previous = this.installations;
+    this.installations = installations;
+    if (previous != null) {
+      SonarUtils.invalidateServerVersions(previous);
+    }
+    WsClient.invalidateMemos();
+  }
+
   public void setBuildWrapperEnabled(boolean enabled) {
     this.buildWrapperEnabled = enabled;
     save();
   }
 
+  /**
+   * @return how long received webhook events are kept for the steps that did not start waiting for them yet
+   */
+  public int getWebhookCacheTtlMinutes() {
+    return webhookCacheTtlMinutes > 0 ? webhookCacheTtlMinutes : DEFAULT_WEBHOOK_CACHE_TTL_MINUTES;
+  }
+
+  public void setWebhookCacheTtlMinutes(int webhookCacheTtlMinutes) {
+    this.webhookCacheTtlMinutes = Math.max(webhookCacheTtlMinutes, 0);
+  }
+
+  /**
+   * @return maximum number of received webhook events kept in memory
+   */
+  public int getWebhookCacheMaxEntries() {
+    return webhookCacheMaxEntries > 0 ? webhookCacheMaxEntries : DEFAULT_WEBHOOK_CACHE_MAX_ENTRIES;
+  }
+
+  public void setWebhookCacheMaxEntries(int webhookCacheMaxEntries) {
+    this.webhookCacheMaxEntries = Math.max(webhookCacheMaxEntries, 0);
+  }
+
+  /**
+   * @return maximum size of the signed payloads kept in memory with the received webhook events
+   */
+  public int getWebhookCacheMaxSizeMb() {
+    return webhookCacheMaxSizeMb > 0 ? webhookCacheMaxSizeMb : DEFAULT_WEBHOOK_CACHE_MAX_SIZE_MB;
+  }
+
+  public void setWebhookCacheMaxSizeMb(int webhookCacheMaxSizeMb) {
+    this.webhookCacheMaxSizeMb = Math.max(webhookCacheMaxSizeMb, 0);
+  }
+
   /**
    * Attempts to migrate data from SonarPublished, which was previously holding the global configuration.
    * It will refuse to migrate if a SonarQube installation already exists in this class.
@@ -139,12 +191,19 @@ public class SonarGlobalConfiguration extends GlobalConfiguration implements Ser
     save();
   }
 
+  /**
+   * The whole form is applied before saving once, which also rebuilds the cache of webhook events with its new settings.
+   */
   @Override
   public boolean configure(StaplerRequest2 req, JSONObject json) {
     List<SonarInstallation> list = req.bindJSONToList(SonarInstallation.class, json.get("inst"));
     boolean enableBuildWrapper = json.getBoolean("enableBuildWrapper");
-    setInstallations(list.toArray(new SonarInstallation[list.size()]));
-    setBuildWrapperEnabled(enableBuildWrapper);
+    replaceInstallations(list.toArray(new SonarInstallation[list.size()]));
+    this.buildWrapperEnabled = enableBuildWrapper;
+    setWebhookCacheTtlMinutes(json.optInt("webhookCacheTtlMinutes", 0));
+    setWebhookCacheMaxEntries(json.optInt("webhookCacheMaxEntries", 0));
+    setWebhookCacheMaxSizeMb(json.optInt("webhookCacheMaxSizeMb", 0));
+    save();
 
     return true;
   }
@@ -29,9 +29,13 @@ import hudson.model.TaskListener;
 import hudson.plugins.sonar.model.TriggersConfig;
 import hudson.util.Secret;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public class SonarInstallation implements Serializable {
 
@@ -68,8 +72,26 @@ public class SonarInstallation implements Serializable {
 
   private TriggersConfig triggers;
 
+  /**
+   * HTTP client tuning, 0 to keep the default of the plugin.
+   */
+  private int connectionPoolSize;
+  private int keepAliveSeconds;
+  private int connectTimeoutSeconds;
+  private int readTimeoutSeconds;
+  private int maxConcurrentRequests;
+
+  /**
+   * @deprecated only kept so that the configurations saved by older versions load silently, dropped by {@link #readResolve()}
+   */
+  @Deprecated
   private String[] split;
 
+  /**
+   * Parsed once per configuration, {@link #additionalAnalysisProperties} never changing.
+   */
+  private transient volatile AnalysisProperties analysisProperties;
+
   /**
    * Maintained to retain compatibility
    * @deprecated since 2.9
@@ -227,27 +249,83 @@ public class SonarInstallation implements Serializable {
   }
 
   public String[] getAdditionalAnalysisPropertiesWindows() {
-    if (additionalAnalysisProperties == null) {
-      return new String[0];
-    }
-
-    split = StringUtils.split(additionalAnalysisProperties);
-    for (int i = 0; i < split.length; i++) {
-      split[i] = "/d:" + split[i];
-    }
-    return split;
+    return getAnalysisProperties().windowsArgs.clone();
   }
 
   public String[] getAdditionalAnalysisPropertiesUnix() {
-    if (additionalAnalysisProperties == null) {
-      return new String[0];
-    }
+    return getAnalysisProperties().unixArgs.clone();
+  }
+
+  /**
+   * @return the key/value pairs of {@link #getAdditionalAnalysisProperties()}, in their order, without the entries that are
+   * not a key and a value separated by '='
+   */
+  public Map<String, String> getAdditionalAnalysisPropertiesMap() {
+    return getAnalysisProperties().map;
+  }
 
-    split = StringUtils.split(additionalAnalysisProperties);
-    for (int i = 0; i < split.length; i++) {
-      split[i] = "-D" + split[i];
+  private AnalysisProperties getAnalysisProperties() {
+    AnalysisProperties parsed = analysisProperties;
+    if (parsed == null) {
+      // racy but idempotent
+      parsed = new AnalysisProperties(additionalAnalysisProperties);
+      analysisProperties = parsed;
     }
-    return split;
+    return parsed;
+  }
+
+  /**
+   * @return maximum number of idle connections kept to the server, 0 for the default
+   */
+  public int getConnectionPoolSize() {
+    return connectionPoolSize;
+  }
+
+  @DataBoundSetter
+  public void setConnectionPoolSize(int connectionPoolSize) {
+    this.connectionPoolSize = Math.max(connectionPoolSize, 0);
+  }
+
+  /**
+   * @return how long idle connections are kept, 0 for the default
+   */
+  public int getKeepAliveSeconds() {
+    return keepAliveSeconds;
+  }
+
+  @DataBoundSetter
+  public void setKeepAliveSeconds(int keepAliveSeconds) {
+    this.keepAliveSeconds = Math.max(keepAliveSeconds, 0);
+  }
+
+  public int getConnectTimeoutSeconds() {
+    return connectTimeoutSeconds;
+  }
+
+  @DataBoundSetter
+  public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+    this.connectTimeoutSeconds = Math.max(connectTimeoutSeconds, 0);
+  }
+
+  public int getReadTimeoutSeconds() {
+    return readTimeoutSeconds;
+  }
+
+  @DataBoundSetter
+  public void setReadTimeoutSeconds(int readTimeoutSeconds) {
+    this.readTimeoutSeconds = Math.max(readTimeoutSeconds, 0);
+  }
+
+  /**
+   * @return maximum number of requests run at the same time on the server, 0 for the default
+   */
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  @DataBoundSetter
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = Math.max(maxConcurrentRequests, 0);
   }
 
   public TriggersConfig getTriggers() {
@@ -257,6 +335,12 @@ public class SonarInstallation implements Serializable {
     return triggers;
   }
 
+  protected Object readResolve() {
+    // Drop the arguments cached by older versions, they are computed from additionalAnalysisProperties
+    split = null;
+    return this;
+  }
+
   @SuppressWarnings("deprecation")
   void migrateTokenToCredential() {
     if (this.serverAuthenticationToken != null) {
@@ -266,4 +350,26 @@ public class SonarInstallation implements Serializable {
       this.serverAuthenticationToken = null;
     }
   }
+
+  private static final class AnalysisProperties {
+    private final String[] unixArgs;
+    private final String[] windowsArgs;
+    private final Map<String, String> map;
+
+    AnalysisProperties(@Nullable String properties) {
+      String[] pairs = properties != null ? StringUtils.split(properties) : new String[0];
+      unixArgs = new String[pairs.length];
+      windowsArgs = new String[pairs.length];
+      Map<String, String> keyValues = new LinkedHashMap<>();
+      for (int i = 0; i < pairs.length; i++) {
+        unixArgs[i] = "-D" + pairs[i];
+        windowsArgs[i] = "/d:" + pairs[i];
+        String[] keyValue = StringUtils.split(pairs[i], "=");
+        if (keyValue.length == 2) {
+          keyValues.put(keyValue[0], keyValue[1]);
+        }
+      }
+      map = Collections.unmodifiableMap(keyValues);
+    }
+  }
 }
@@ -44,15 +44,18 @@ import hudson.plugins.sonar.utils.BuilderUtils;
 import hudson.plugins.sonar.utils.ExtendedArgumentListBuilder;
 import hudson.plugins.sonar.utils.JenkinsRouter;
 import hudson.plugins.sonar.utils.Logger;
+import hudson.plugins.sonar.utils.ScannerOutputTap;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Map.Entry;
 import java.util.Properties;
 import jenkins.model.Jenkins;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -255,7 +258,7 @@ public class SonarRunnerBuilder extends Builder {
     SonarInstallation sonarInst = getSonarInstallation();
     addAdditionalArguments(args, sonarInst);
     ExtendedArgumentListBuilder argsBuilder = new ExtendedArgumentListBuilder(args, launcher.isUnix());
-    populateConfiguration(argsBuilder, run, workspace, listener, env, sonarInst, new HttpClient(OkHttpClientSingleton.getInstance()));
+    populateConfiguration(argsBuilder, run, workspace, listener, env, sonarInst, new HttpClient(OkHttpClientSingleton.getInstance(sonarInst)));
 
     // Java
     computeJdkToUse(run, workspace, listener, env);
@@ -267,16 +270,16 @@ public class SonarRunnerBuilder extends Builder {
 
     long startTime = System.currentTimeMillis();
     int exitCode;
-    try {
-      exitCode = executeSonarQubeScanner(run, workspace, launcher, listener, args, env);
+    ScannerOutputTap scannerOutput = new ScannerOutputTap(CloseShieldOutputStream.wrap(listener.getLogger()), run.getCharset());
+    try (scannerOutput) {
+      exitCode = executeSonarQubeScanner(run, workspace, launcher, scannerOutput, args, env);
     } catch (IOException e) {
       handleErrors(listener, sri, startTime, e);
       exitCode = -1;
     }
 
-    // with workflows, we don't have realtime access to build logs, so url might be null
-    // if the analyis doesn't succeed, it will also be null
-    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInst);
+    // if the analyis doesn't succeed, url will be null
+    SonarUtils.addBuildInfoTo(run, listener, workspace, sonarInst, scannerOutput.getResult());
 
     if (exitCode != 0) {
       throw new AbortException("SonarQube scanner exited with non-zero code: " + exitCode);
@@ -295,9 +298,9 @@ public class SonarRunnerBuilder extends Builder {
     e.printStackTrace(listener.fatalError(errorMessage));
   }
 
-  private static int executeSonarQubeScanner(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, ArgumentListBuilder args, EnvVars env)
+  private static int executeSonarQubeScanner(Run<?, ?> build, FilePath workspace, Launcher launcher, OutputStream out, ArgumentListBuilder args, EnvVars env)
     throws IOException, InterruptedException {
-    return launcher.launch().cmds(args).envs(env).stdout(listener).pwd(BuilderUtils.getModuleRoot(build, workspace)).join();
+    return launcher.launch().cmds(args).envs(env).stdout(out).pwd(BuilderUtils.getModuleRoot(build, workspace)).join();
   }
 
   private static AbstractProject<?, ?> getProject(Run<?, ?> run) {
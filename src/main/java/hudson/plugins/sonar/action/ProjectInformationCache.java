@@ -0,0 +1,199 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.action;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Run;
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.SQProjectResolver;
+import hudson.plugins.sonar.client.WsClient;
+import hudson.plugins.sonar.utils.Logger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-wide cache of the quality gates displayed in the project pages, keyed by CE task id.
+ * The information about a completed CE task never changes, so it is refreshed much less often than the one about a pending task.
+ * The last known information is served while it is refreshed.
+ */
+public class ProjectInformationCache {
+  private static final String PROPERTY_PREFIX = ProjectInformationCache.class.getName();
+  private static final ProjectInformationCache INSTANCE = new ProjectInformationCache(
+    SystemProperties.getLong(PROPERTY_PREFIX + ".maximumSize", 1000L),
+    Duration.ofMinutes(SystemProperties.getLong(PROPERTY_PREFIX + ".terminalTtlMinutes", 120L)),
+    Duration.ofSeconds(SystemProperties.getLong(PROPERTY_PREFIX + ".pendingTtlSeconds", 30L)));
+
+  /**
+   * Stands for a task that could not be resolved, so that it is not requested again on every page rendering.
+   */
+  private static final ProjectInformation UNAVAILABLE = new ProjectInformation();
+
+  private final Cache<String, Entry> cache;
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+  private final long terminalTtlNanos;
+  private final long pendingTtlNanos;
+
+  /**
+   * @param terminalTtl how long the information about a completed task is used before being refreshed, and kept without being displayed
+   * @param pendingTtl how long the information about a pending task is used before being refreshed
+   */
+  @VisibleForTesting
+  ProjectInformationCache(long maximumSize, Duration terminalTtl, Duration pendingTtl) {
+    this.terminalTtlNanos = terminalTtl.toNanos();
+    this.pendingTtlNanos = pendingTtl.toNanos();
+    this.cache = Caffeine.newBuilder()
+      .maximumSize(maximumSize)
+      .expireAfterAccess(terminalTtl)
+      .recordStats()
+      .build();
+  }
+
+  public static ProjectInformationCache get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the information about the given analyses without ever calling the server from the calling thread.
+   * Missing entries are fetched with the given executor; until then, a {@link ProjectInformation#resolving(String) placeholder} is returned.
+   * Outdated entries are refreshed the same way, and returned meanwhile.
+   * Analyses without CE task, or whose task could not be resolved, are left out.
+   */
+  public List<ProjectInformation> getNow(SQProjectResolver resolver, List<SonarAnalysisAction> analysis, Run<?, ?> run, Executor executor) {
+    List<ProjectInformation> list = new ArrayList<>(analysis.size());
+
+    for (SonarAnalysisAction a : analysis) {
+      String taskId = a.getCeTaskId();
+      if (taskId == null) {
+        continue;
+      }
+      Entry cached = cache.getIfPresent(taskId);
+      if (cached == null) {
+        scheduleResolve(resolver, a, taskId, run, executor);
+        list.add(ProjectInformation.resolving(a.getUrl()));
+        continue;
+      }
+      if (System.nanoTime() - cached.refreshAt >= 0) {
+        scheduleResolve(resolver, a, taskId, run, executor);
+      }
+      if (cached.info != UNAVAILABLE) {
+        list.add(cached.info);
+      }
+    }
+
+    return list;
+  }
+
+  private void scheduleResolve(SQProjectResolver resolver, SonarAnalysisAction analysis, String taskId, Run<?, ?> run, Executor executor) {
+    if (!inFlight.add(taskId)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          ProjectInformation proj = resolver.resolve(analysis.getInstallationUrl(), analysis.getUrl(), taskId, analysis.getInstallationName(), run);
+          cache.asMap().compute(taskId, (k, previous) -> nextEntry(previous, proj));
+        } finally {
+          inFlight.remove(taskId);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(taskId);
+      Logger.LOG.fine(() -> "Too many pending requests, not fetching information of task " + taskId + " now");
+    }
+  }
+
+  private Entry nextEntry(@CheckForNull Entry previous, @CheckForNull ProjectInformation proj) {
+    long now = System.nanoTime();
+    if (proj != null) {
+      // without CE status, the resolver won't learn more about the task later
+      boolean done = proj.getCeStatus() == null || isTerminal(proj);
+      return new Entry(proj, now + (done ? terminalTtlNanos : pendingTtlNanos), pendingTtlNanos);
+    }
+    // keep the last known information, and back off while the server can't tell
+    long retryDelay = previous != null ? Math.min(Math.max(previous.retryDelay * 2, 1), terminalTtlNanos) : pendingTtlNanos;
+    return new Entry(previous != null ? previous.info : UNAVAILABLE, now + retryDelay, retryDelay);
+  }
+
+  @CheckForNull
+  public ProjectInformation getIfPresent(String taskId) {
+    Entry entry = cache.getIfPresent(taskId);
+    return entry != null && entry.info != UNAVAILABLE ? entry.info : null;
+  }
+
+  /**
+   * @return hit/miss/eviction counters of the cache
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long getEstimatedSize() {
+    return cache.estimatedSize();
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting
+  static boolean isTerminal(ProjectInformation info) {
+    String status = info.getCeStatus();
+    if (status == null) {
+      return false;
+    }
+    switch (status.toUpperCase(Locale.US)) {
+      case WsClient.CETask.STATUS_SUCCESS:
+      case WsClient.CETask.STATUS_FAILURE:
+      case WsClient.CETask.STATUS_CANCELED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static final class Entry {
+    private final ProjectInformation info;
+    /**
+     * {@link System#nanoTime()} after which the information is refreshed on the next access.
+     */
+    private final long refreshAt;
+    /**
+     * Delay before retrying if the next refresh fails.
+     */
+    private final long retryDelay;
+
+    private Entry(ProjectInformation info, long refreshAt, long retryDelay) {
+      this.info = info;
+      this.refreshAt = refreshAt;
+      this.retryDelay = retryDelay;
+    }
+  }
+}
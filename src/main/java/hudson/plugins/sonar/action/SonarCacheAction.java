@@ -32,6 +32,10 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * @deprecated replaced by the controller-wide {@link ProjectInformationCache}, only kept to load the builds that still reference it
+ */
+@Deprecated
 public class SonarCacheAction extends InvisibleAction {
   private Map<String, ProjectInformation> infoByTaskId;
   private Long lastRequest;
@@ -22,7 +22,6 @@ package hudson.plugins.sonar.action;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.model.Action;
-import hudson.model.Actionable;
 import hudson.model.BuildableItemWithBuildWrappers;
 import hudson.model.Job;
 import hudson.model.ProminentProjectAction;
@@ -33,22 +32,37 @@ import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.client.ProjectInformation;
 import hudson.plugins.sonar.client.SQProjectResolver;
 import hudson.plugins.sonar.utils.SonarUtils;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import jenkins.model.TransientActionFactory;
+import jenkins.util.SystemProperties;
 
 @Extension
 /**
  * We don't use {@link TransientProjectActionFactory} because it appears to be cached and requires Jenkins to restart.
  */
 public class SonarProjectActionFactory extends TransientActionFactory<Job> {
+  private static final int RESOLVER_THREADS = SystemProperties.getInteger(SonarProjectActionFactory.class.getName() + ".resolverThreads", 4);
+  private static final int RESOLVER_QUEUE_SIZE = SystemProperties.getInteger(SonarProjectActionFactory.class.getName() + ".resolverQueueSize", 100);
+
+  /**
+   * Fetches the quality gates displayed in the project pages, so that rendering a page never waits for SonarQube.
+   */
+  private static final ExecutorService RESOLVER_EXECUTOR = createResolverExecutor();
+
   private SQProjectResolver resolver;
 
   public SonarProjectActionFactory() {
-    resolver = new SQProjectResolver(new HttpClient(OkHttpClientSingleton.getInstance()));
+    resolver = new SQProjectResolver(inst -> new HttpClient(OkHttpClientSingleton.getInstance(inst)));
   }
 
   @Override
@@ -116,24 +130,19 @@ public class SonarProjectActionFactory extends TransientActionFactory<Job> {
    */
   @CheckForNull
   private SonarProjectPageAction createProjectPage(Run<?, ?> run, List<SonarAnalysisAction> actions) {
-    long endTime = run.getStartTimeInMillis() + run.getDuration();
-    List<ProjectInformation> projects;
-
-    SonarCacheAction cache = getOrCreateCache(run);
-    projects = cache.get(resolver, endTime, actions, run);
+    List<ProjectInformation> projects = ProjectInformationCache.get().getNow(resolver, actions, run, RESOLVER_EXECUTOR);
 
-    if (projects == null || projects.isEmpty()) {
+    if (projects.isEmpty()) {
       return null;
     }
     return new SonarProjectPageAction(projects);
   }
 
-  private static SonarCacheAction getOrCreateCache(Actionable actionable) {
-    SonarCacheAction cache = SonarUtils.getPersistentAction(actionable, SonarCacheAction.class);
-    if (cache == null) {
-      cache = new SonarCacheAction();
-      actionable.addAction(cache);
-    }
-    return cache;
+  private static ExecutorService createResolverExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(RESOLVER_QUEUE_SIZE),
+      new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube project information resolver"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 }
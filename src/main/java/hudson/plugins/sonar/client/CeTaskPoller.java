@@ -0,0 +1,256 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.client.WsClient.CETask;
+import hudson.plugins.sonar.utils.Logger;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import jenkins.util.SystemProperties;
+import org.sonarqube.ws.client.HttpException;
+
+/**
+ * Coalesces the requests for the status of CE tasks, typically made by the steps resumed after a restart.
+ * Requests for the same server received within a short window are grouped: the whole batch is resolved with a single
+ * call to the CE activity API when the token is allowed to use it, and with one call per task otherwise.
+ * The CE activity API requires the global 'Administer System' permission, so only admin tokens benefit from batching:
+ * analysis tokens are detected on the first refusal, and their tasks requested one by one.
+ * Calls to each server are rate limited: the batches waiting for a permit are rescheduled, so that a throttled server
+ * doesn't hold the threads polling the others.
+ */
+public class CeTaskPoller {
+  private static final String PROPERTY_PREFIX = CeTaskPoller.class.getName();
+  private static final CeTaskPoller INSTANCE = new CeTaskPoller(
+    SystemProperties.getLong(PROPERTY_PREFIX + ".batchWindowMillis", 1000L),
+    Double.parseDouble(SystemProperties.getString(PROPERTY_PREFIX + ".requestsPerSecond", "5")),
+    Executors.newScheduledThreadPool(2, new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube CE task poller")));
+
+  public interface Callback {
+    void onResult(CETask task);
+
+    void onError(Exception e);
+  }
+
+  private final long batchWindowMillis;
+  private final double requestsPerSecond;
+  private final ScheduledExecutorService executor;
+  private final Map<Server, Batch> batches = new ConcurrentHashMap<>();
+  private final Cache<Server, RateLimiter> rateLimiters = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterAccess(Duration.ofHours(1))
+    .build();
+  // servers on which the token is not allowed to browse the CE activity
+  private final Cache<Server, Boolean> activityUnavailable = Caffeine.newBuilder()
+    .maximumSize(1000)
+    .expireAfterWrite(Duration.ofHours(1))
+    .build();
+
+  @VisibleForTesting
+  CeTaskPoller(long batchWindowMillis, double requestsPerSecond, ScheduledExecutorService executor) {
+    this.batchWindowMillis = batchWindowMillis;
+    this.requestsPerSecond = requestsPerSecond;
+    this.executor = executor;
+  }
+
+  public static CeTaskPoller get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Requests the status of the given task. The callback is called from one of the few poller threads, and should hand
+   * off any further call to the server to another executor.
+   */
+  public void poll(WsClient client, String taskId, Callback callback) {
+    Server server = new Server(client.getServerUrl(), client.getTokenDigest());
+    while (true) {
+      Batch batch = batches.computeIfAbsent(server, s -> new Batch(client));
+      if (batch.add(taskId, callback)) {
+        if (batch.scheduleOnce()) {
+          executor.schedule(() -> flush(server, batch), batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        return;
+      }
+      // already being flushed
+      batches.remove(server, batch);
+    }
+  }
+
+  @VisibleForTesting
+  void flush(Server server, Batch batch) {
+    batches.remove(server, batch);
+    resolve(server, batch.client, batch.close(), true);
+  }
+
+  /**
+   * Requests the given tasks as long as the rate limit allows it, and reschedules the others.
+   */
+  private void resolve(Server server, WsClient client, Map<String, List<Callback>> pending, boolean tryActivity) {
+    RateLimiter rateLimiter = rateLimiters.get(server, s -> RateLimiter.create(requestsPerSecond));
+
+    if (tryActivity && pending.size() > 1 && activityUnavailable.getIfPresent(server) == null) {
+      if (!rateLimiter.tryAcquire()) {
+        reschedule(server, client, pending, true);
+        return;
+      }
+      Map<String, CETask> found = requestActivity(server, client);
+      for (Iterator<Map.Entry<String, List<Callback>>> it = pending.entrySet().iterator(); it.hasNext();) {
+        Map.Entry<String, List<Callback>> e = it.next();
+        CETask task = found.get(e.getKey());
+        if (task != null) {
+          notifyResult(e.getValue(), task);
+          it.remove();
+        }
+      }
+    }
+
+    for (Iterator<Map.Entry<String, List<Callback>>> it = pending.entrySet().iterator(); it.hasNext();) {
+      if (!rateLimiter.tryAcquire()) {
+        reschedule(server, client, pending, false);
+        return;
+      }
+      Map.Entry<String, List<Callback>> e = it.next();
+      it.remove();
+      CETask task;
+      try {
+        task = client.getCETask(e.getKey());
+      } catch (Exception ex) {
+        notifyError(e.getValue(), ex);
+        continue;
+      }
+      notifyResult(e.getValue(), task);
+    }
+  }
+
+  private void reschedule(Server server, WsClient client, Map<String, List<Callback>> pending, boolean tryActivity) {
+    long delayMillis = Math.max(1L, (long) Math.ceil(1000 / requestsPerSecond));
+    executor.schedule(() -> resolve(server, client, pending, tryActivity), delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private Map<String, CETask> requestActivity(Server server, WsClient client) {
+    try {
+      return client.getCEActivity();
+    } catch (HttpException e) {
+      if (e.code() == 400 || e.code() == 401 || e.code() == 403 || e.code() == 404) {
+        Logger.LOG.fine(() -> "CE activity not available on " + server.url + ", requesting tasks one by one: " + e.code());
+        activityUnavailable.put(server, Boolean.TRUE);
+      } else {
+        Logger.LOG.log(Level.FINE, "Failed to request CE activity of " + server.url, e);
+      }
+    } catch (Exception e) {
+      Logger.LOG.log(Level.FINE, "Failed to request CE activity of " + server.url, e);
+    }
+    return Collections.emptyMap();
+  }
+
+  private static void notifyResult(List<Callback> callbacks, CETask task) {
+    for (Callback callback : callbacks) {
+      try {
+        callback.onResult(task);
+      } catch (RuntimeException e) {
+        Logger.LOG.log(Level.WARNING, "Failed to process the status of a CE task", e);
+      }
+    }
+  }
+
+  private static void notifyError(List<Callback> callbacks, Exception error) {
+    for (Callback callback : callbacks) {
+      try {
+        callback.onError(error);
+      } catch (RuntimeException e) {
+        Logger.LOG.log(Level.WARNING, "Failed to process the status of a CE task", e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static final class Server {
+    private final String url;
+    @Nullable
+    private final String tokenDigest;
+
+    Server(String url, @Nullable String tokenDigest) {
+      this.url = url;
+      this.tokenDigest = tokenDigest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Server)) {
+        return false;
+      }
+      Server other = (Server) o;
+      return url.equals(other.url) && Objects.equals(tokenDigest, other.tokenDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, tokenDigest);
+    }
+  }
+
+  @VisibleForTesting
+  static final class Batch {
+    private final WsClient client;
+    private final Map<String, List<Callback>> callbacks = new LinkedHashMap<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    Batch(WsClient client) {
+      this.client = client;
+    }
+
+    synchronized boolean add(String taskId, Callback callback) {
+      if (closed) {
+        return false;
+      }
+      callbacks.computeIfAbsent(taskId, id -> new ArrayList<>(1)).add(callback);
+      return true;
+    }
+
+    synchronized boolean scheduleOnce() {
+      boolean first = !scheduled;
+      scheduled = true;
+      return first;
+    }
+
+    synchronized Map<String, List<Callback>> close() {
+      closed = true;
+      return new LinkedHashMap<>(callbacks);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import jenkins.util.SystemProperties;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * Stops requesting a server that failed several times in a row, so that builds fail fast instead of each waiting for
+ * timeouts while it is down. After a while a single request is let through to check if the server is back.
+ * <p>
+ * Like the connection pools, circuits are not shared by the installations: they are kept by client, see
+ * {@link OkHttpClientSingleton#getInstance(hudson.plugins.sonar.SonarInstallation)}, and dropped with it.
+ */
+public final class CircuitBreaker {
+  private static final int FAILURE_THRESHOLD = SystemProperties.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 5);
+  private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(SystemProperties.getLong(CircuitBreaker.class.getName() + ".openSeconds", 30L));
+  private static final Cache<OkHttpClient, ConcurrentMap<String, CircuitBreaker>> BREAKERS = Caffeine.newBuilder()
+    .weakKeys()
+    .build();
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final LongSupplier clock;
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+  private long rejected;
+
+  @VisibleForTesting
+  CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  static CircuitBreaker of(OkHttpClient client, HttpUrl url) {
+    String server = url.scheme() + "://" + url.host() + ":" + url.port();
+    return BREAKERS.get(client, c -> new ConcurrentHashMap<>())
+      .computeIfAbsent(server, s -> new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, System::currentTimeMillis));
+  }
+
+  /**
+   * @return state of the circuit of each server requested so far, the most degraded one if several installations
+   * request the same server
+   */
+  public static Map<String, State> getStates() {
+    Map<String, State> states = new TreeMap<>();
+    BREAKERS.asMap().values().forEach(breakers -> breakers.forEach((server, breaker) -> states.merge(server, breaker.getState(), CircuitBreaker::worst)));
+    return states;
+  }
+
+  /**
+   * @return number of requests refused because the circuit of their server was open
+   */
+  public static long getRejectedRequests() {
+    return BREAKERS.asMap().values().stream().flatMap(breakers -> breakers.values().stream()).mapToLong(CircuitBreaker::getRejected).sum();
+  }
+
+  private static State worst(State a, State b) {
+    if (a == State.OPEN || b == State.OPEN) {
+      return State.OPEN;
+    }
+    return a == State.HALF_OPEN || b == State.HALF_OPEN ? State.HALF_OPEN : State.CLOSED;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  synchronized long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return false if the server must not be requested for now
+   */
+  synchronized boolean allowRequest() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    // also lets another request through if the one checking the server never reported
+    if (clock.getAsLong() - openedAt >= openMillis) {
+      state = State.HALF_OPEN;
+      openedAt = clock.getAsLong();
+      return true;
+    }
+    rejected++;
+    return false;
+  }
+
+  synchronized void onSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  synchronized void onFailure() {
+    failures++;
+    if (state == State.HALF_OPEN || failures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = clock.getAsLong();
+    }
+  }
+}
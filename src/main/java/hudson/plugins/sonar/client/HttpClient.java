@@ -22,7 +22,11 @@ package hudson.plugins.sonar.client;
 import com.google.common.base.Strings;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import jenkins.util.SystemProperties;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -31,21 +35,96 @@ import okhttp3.ResponseBody;
 import org.sonarqube.ws.client.HttpException;
 
 public class HttpClient {
+  private static final int MAX_RETRIES = SystemProperties.getInteger(HttpClient.class.getName() + ".maxRetries", 2);
+  private static final long RETRY_BACKOFF_MILLIS = SystemProperties.getLong(HttpClient.class.getName() + ".retryBackoffMillis", 200L);
+  private static final long MAX_RETRY_BACKOFF_MILLIS = SystemProperties.getLong(HttpClient.class.getName() + ".maxRetryBackoffMillis", 2000L);
+
   private final OkHttpClient okHttpClient;
 
   public HttpClient(OkHttpClient okHttpClient) {
     this.okHttpClient = okHttpClient;
   }
 
+  /**
+   * Reads the body of a successful response, without buffering it.
+   */
+  @FunctionalInterface
+  public interface BodyReader<T> {
+    T read(Reader reader) throws IOException;
+  }
+
   public String getHttp(String url, @Nullable String token) {
+    return execute(url, token, HttpClient::getContent);
+  }
+
+  /**
+   * Requests are retried on network errors and server errors, unless the server failed too many times in a row or
+   * the thread is interrupted.
+   * @param reader reads the body of the successful response
+   */
+  public <T> T getHttp(String url, @Nullable String token, BodyReader<T> reader) {
+    return execute(url, token, response -> readContent(response, reader));
+  }
+
+  private <T> T execute(String url, @Nullable String token, Function<Response, T> reader) {
     Request request = newRequest(url, token);
+    CircuitBreaker circuitBreaker = CircuitBreaker.of(okHttpClient, request.url());
+    if (!circuitBreaker.allowRequest()) {
+      throw new IllegalStateException("Fail to request " + request.url() + ", the server is considered unavailable after too many failures");
+    }
+    for (int attempt = 0;; attempt++) {
+      try {
+        T content = call(url, request, reader);
+        circuitBreaker.onSuccess();
+        return content;
+      } catch (HttpException e) {
+        if (e.code() < 500) {
+          // the server is up
+          circuitBreaker.onSuccess();
+          throw e;
+        }
+        if (attempt >= MAX_RETRIES) {
+          circuitBreaker.onFailure();
+          throw e;
+        }
+      } catch (IllegalStateException e) {
+        if (!(e.getCause() instanceof IOException) || Thread.currentThread().isInterrupted()) {
+          // not a network error, or the build was aborted: nothing to retry
+          throw e;
+        }
+        if (attempt >= MAX_RETRIES) {
+          circuitBreaker.onFailure();
+          throw e;
+        }
+      } catch (RuntimeException e) {
+        // the response could not be parsed, the server is up
+        circuitBreaker.onSuccess();
+        throw e;
+      }
+      backoff(request, attempt);
+    }
+  }
+
+  private <T> T call(String url, Request request, Function<Response, T> reader) {
     Response response = httpCall(request);
-    String content = getContent(response);
 
     if (isSuccessful(response)) {
-      return content;
+      return reader.apply(response);
     } else {
-      throw new HttpException(url, response.code(), content);
+      throw new HttpException(url, response.code(), getContent(response));
+    }
+  }
+
+  /**
+   * Exponential, with full jitter so that the builds that failed together don't retry together.
+   */
+  private static void backoff(Request request, int attempt) {
+    long max = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(attempt, 20));
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrying " + request.url(), e);
     }
   }
 
@@ -65,6 +144,14 @@ public class HttpClient {
     }
   }
 
+  private static <T> T readContent(Response response, BodyReader<T> reader) {
+    try (ResponseBody body = response.body()) {
+      return reader.read(body.charStream());
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to read response of " + response.request().url(), e);
+    }
+  }
+
   private Response httpCall(Request request) {
     try {
       return okHttpClient.newCall(request).execute();
@@ -19,11 +19,39 @@
  */
 package hudson.plugins.sonar.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.SonarInstallation;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.apache.commons.lang3.StringUtils;
 import org.sonarqube.ws.client.OkHttpClientBuilder;
 
 public class OkHttpClientSingleton {
   private static final OkHttpClient okHttpClient = new OkHttpClientBuilder().setUserAgent("Scanner for Jenkins").build();
+  /**
+   * Clients of the installations, by installation and settings. They share the configuration of the base client, but have
+   * their own connection pool, dispatcher and concurrency limit, so that a slow server doesn't hold the connections and
+   * threads of the others.
+   */
+  private static final Cache<ClientKey, OkHttpClient> INSTALLATION_CLIENTS = Caffeine.newBuilder()
+    .expireAfterAccess(Duration.ofHours(1))
+    .<ClientKey, OkHttpClient>removalListener((key, client, cause) -> {
+      if (client != null) {
+        client.connectionPool().evictAll();
+      }
+    })
+    .build();
 
   private OkHttpClientSingleton() {
     // Nothing to do
@@ -32,4 +60,159 @@ public class OkHttpClientSingleton {
   public static OkHttpClient getInstance() {
     return okHttpClient;
   }
+
+  /**
+   * @return the client to use to request the server of the installation
+   */
+  public static OkHttpClient getInstance(@Nullable SonarInstallation installation) {
+    if (installation == null) {
+      return okHttpClient;
+    }
+    return INSTALLATION_CLIENTS.get(new ClientKey(installation), OkHttpClientSingleton::createClient);
+  }
+
+  private static OkHttpClient createClient(ClientKey settings) {
+    OkHttpClient.Builder builder = okHttpClient.newBuilder();
+    if (settings.connectionPoolSize > 0 || settings.keepAliveSeconds > 0) {
+      // same defaults as OkHttp
+      builder.connectionPool(new ConnectionPool(settings.connectionPoolSize > 0 ? settings.connectionPoolSize : 5,
+        settings.keepAliveSeconds > 0 ? settings.keepAliveSeconds : 300, TimeUnit.SECONDS));
+    } else {
+      builder.connectionPool(new ConnectionPool());
+    }
+    Dispatcher dispatcher = new Dispatcher();
+    if (settings.maxConcurrentRequests > 0) {
+      dispatcher.setMaxRequests(settings.maxConcurrentRequests);
+      dispatcher.setMaxRequestsPerHost(settings.maxConcurrentRequests);
+      // the dispatcher only limits asynchronous calls
+      builder.addInterceptor(new ConcurrencyLimit(settings.maxConcurrentRequests));
+    }
+    builder.dispatcher(dispatcher);
+    if (settings.connectTimeoutSeconds > 0) {
+      builder.connectTimeout(settings.connectTimeoutSeconds, TimeUnit.SECONDS);
+    }
+    if (settings.readTimeoutSeconds > 0) {
+      builder.readTimeout(settings.readTimeoutSeconds, TimeUnit.SECONDS);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return usage of the connection pool and dispatcher used for the installation
+   */
+  public static PoolStats getPoolStats(@Nullable SonarInstallation installation) {
+    OkHttpClient client = getInstance(installation);
+    int queued = client.dispatcher().queuedCallsCount();
+    for (Interceptor interceptor : client.interceptors()) {
+      if (interceptor instanceof ConcurrencyLimit) {
+        queued += ((ConcurrencyLimit) interceptor).permits.getQueueLength();
+      }
+    }
+    return new PoolStats(client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount(),
+      client.dispatcher().runningCallsCount(), queued);
+  }
+
+  private static final class ConcurrencyLimit implements Interceptor {
+    private final Semaphore permits;
+
+    private ConcurrencyLimit(int maxConcurrentRequests) {
+      this.permits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to request " + chain.request().url());
+      }
+      try {
+        return chain.proceed(chain.request());
+      } finally {
+        permits.release();
+      }
+    }
+  }
+
+  public static final class PoolStats {
+    private final int connections;
+    private final int idleConnections;
+    private final int runningCalls;
+    private final int queuedCalls;
+
+    PoolStats(int connections, int idleConnections, int runningCalls, int queuedCalls) {
+      this.connections = connections;
+      this.idleConnections = idleConnections;
+      this.runningCalls = runningCalls;
+      this.queuedCalls = queuedCalls;
+    }
+
+    public int getConnections() {
+      return connections;
+    }
+
+    public int getIdleConnections() {
+      return idleConnections;
+    }
+
+    public int getRunningCalls() {
+      return runningCalls;
+    }
+
+    public int getQueuedCalls() {
+      return queuedCalls;
+    }
+
+    @Override
+    public String toString() {
+      return "connections=" + connections + ", idle=" + idleConnections + ", running=" + runningCalls + ", queued=" + queuedCalls;
+    }
+  }
+
+  /**
+   * The installation, its server, and the settings the client was built with, so that a configuration change gets a new
+   * client.
+   */
+  private static final class ClientKey {
+    @Nullable
+    private final String installationName;
+    @Nullable
+    private final String serverUrl;
+    private final int connectionPoolSize;
+    private final int keepAliveSeconds;
+    private final int connectTimeoutSeconds;
+    private final int readTimeoutSeconds;
+    private final int maxConcurrentRequests;
+
+    private ClientKey(SonarInstallation installation) {
+      this.installationName = installation.getName();
+      this.serverUrl = StringUtils.removeEnd(StringUtils.lowerCase(StringUtils.trim(installation.getServerUrl())), "/");
+      this.connectionPoolSize = installation.getConnectionPoolSize();
+      this.keepAliveSeconds = installation.getKeepAliveSeconds();
+      this.connectTimeoutSeconds = installation.getConnectTimeoutSeconds();
+      this.readTimeoutSeconds = installation.getReadTimeoutSeconds();
+      this.maxConcurrentRequests = installation.getMaxConcurrentRequests();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ClientKey that = (ClientKey) o;
+      return Objects.equals(installationName, that.installationName) && Objects.equals(serverUrl, that.serverUrl)
+        && connectionPoolSize == that.connectionPoolSize && keepAliveSeconds == that.keepAliveSeconds
+        && connectTimeoutSeconds == that.connectTimeoutSeconds && readTimeoutSeconds == that.readTimeoutSeconds
+        && maxConcurrentRequests == that.maxConcurrentRequests;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(installationName, serverUrl, connectionPoolSize, keepAliveSeconds, connectTimeoutSeconds, readTimeoutSeconds, maxConcurrentRequests);
+    }
+  }
 }
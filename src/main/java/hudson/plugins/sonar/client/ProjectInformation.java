@@ -38,11 +38,26 @@ public class ProjectInformation extends InvisibleAction {
   private String status;
   private String ceStatus;
   private String ceUrl;
+  private transient boolean resolving;
 
   public ProjectInformation() {
     this.created = System.currentTimeMillis();
   }
 
+  /**
+   * Placeholder displayed while the information is being fetched from the server in the background.
+   */
+  public static ProjectInformation resolving(@Nullable String url) {
+    ProjectInformation info = new ProjectInformation();
+    info.setUrl(url);
+    info.resolving = true;
+    return info;
+  }
+
+  public boolean isResolving() {
+    return resolving;
+  }
+
   public long created() {
     return created;
   }
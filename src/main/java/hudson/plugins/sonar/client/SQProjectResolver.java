@@ -25,14 +25,22 @@ import hudson.model.Run;
 import hudson.plugins.sonar.SonarInstallation;
 import hudson.plugins.sonar.client.WsClient.CETask;
 import hudson.plugins.sonar.utils.Logger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import org.sonarqube.ws.client.HttpException;
 
 public class SQProjectResolver {
-  private final HttpClient client;
+  private final Function<SonarInstallation, HttpClient> clients;
 
   public SQProjectResolver(HttpClient client) {
-    this.client = client;
+    this(inst -> client);
+  }
+
+  /**
+   * @param clients provides the client to use for each installation
+   */
+  public SQProjectResolver(Function<SonarInstallation, HttpClient> clients) {
+    this.clients = clients;
   }
 
   /**
@@ -60,7 +68,7 @@ public class SQProjectResolver {
 
     try {
       String serverAuthenticationToken = inst.getServerAuthenticationToken(build);
-      WsClient wsClient = new WsClient(client, serverUrl, serverAuthenticationToken);
+      WsClient wsClient = new WsClient(clients.apply(inst), serverUrl, serverAuthenticationToken);
 
       ProjectInformation projectInfo = new ProjectInformation();
       projectInfo.setUrl(projectDashboardUrl);
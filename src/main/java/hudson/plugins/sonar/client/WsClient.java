@@ -19,13 +19,26 @@
  */
 package hudson.plugins.sonar.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.plugins.sonar.utils.JsonFieldExtractor;
+import java.io.Serializable;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 
 public class WsClient {
@@ -33,47 +46,153 @@ public class WsClient {
   public static final String API_PROJECT_STATUS_WITH_ANALYSISID = "/api/qualitygates/project_status?analysisId=";
   public static final String API_VERSION = "/api/server/version";
   public static final String API_CE_TASK = "/api/ce/task?id=";
+  public static final String API_CE_ACTIVITY = "/api/ce/activity?status=PENDING,IN_PROGRESS,SUCCESS,FAILED,CANCELED&ps=";
+  public static final int CE_ACTIVITY_MAX_PAGE_SIZE = 1000;
+  private static final String TASK_STATUS = "task.status";
+  private static final String TASK_COMPONENT_NAME = "task.componentName";
+  private static final String TASK_COMPONENT_KEY = "task.componentKey";
+  private static final String TASK_ANALYSIS_ID = "task.analysisId";
+  private static final List<String> CE_TASK_FIELDS = List.of(TASK_STATUS, TASK_COMPONENT_NAME, TASK_COMPONENT_KEY, TASK_ANALYSIS_ID);
+  private static final String PROJECT_STATUS = "projectStatus.status";
+  private static final List<String> QUALITY_GATE_FIELDS = List.of(PROJECT_STATUS);
+  private static final long MEMO_SIZE = SystemProperties.getLong(WsClient.class.getName() + ".memoSize", 10_000L);
+  /**
+   * Tasks in a terminal state, and quality gates of analyses, never change: they are kept by request URL and token digest,
+   * so that pages and resumed steps don't request them again. SonarQube web services responses can't be cached at the HTTP
+   * level, they are not cacheable and have no validator.
+   */
+  private static final Cache<Request, CETask> TERMINAL_TASKS = Caffeine.newBuilder()
+    .maximumSize(MEMO_SIZE)
+    .expireAfterAccess(Duration.ofHours(24))
+    .recordStats()
+    .build();
+  private static final Cache<Request, String> QUALITY_GATES = Caffeine.newBuilder()
+    .maximumSize(MEMO_SIZE)
+    .expireAfterAccess(Duration.ofHours(24))
+    .recordStats()
+    .build();
 
   private final HttpClient client;
   private final String serverUrl;
   private final String token;
+  @Nullable
+  private final String tokenDigest;
 
   public WsClient(HttpClient client, String serverUrl, @Nullable String token) {
     this.client = client;
     this.serverUrl = StringUtils.removeEnd(serverUrl, "/");
     this.token = token;
+    this.tokenDigest = digest(token);
+  }
+
+  /**
+   * @return what identifies a token in the keys of long-lived caches, which must not hold the token itself
+   */
+  @CheckForNull
+  static String digest(@Nullable String token) {
+    return token != null ? DigestUtils.sha256Hex(token) : null;
   }
 
   public CETask getCETask(String taskId) {
     String url = serverUrl + API_CE_TASK + taskId;
+    Request request = new Request(url, tokenDigest);
+    CETask memoized = TERMINAL_TASKS.getIfPresent(request);
+    if (memoized != null) {
+      return memoized;
+    }
+    CETask task = requestCETask(url);
+    if (task.isTerminal()) {
+      TERMINAL_TASKS.put(request, task);
+    }
+    return task;
+  }
+
+  private CETask requestCETask(String url) {
+    Map<String, String> task = getFields(url, CE_TASK_FIELDS, TASK_STATUS, TASK_COMPONENT_NAME, TASK_COMPONENT_KEY);
+    // No analysisId if task is pending
+    return new CETask(task.get(TASK_STATUS), task.get(TASK_COMPONENT_NAME), task.get(TASK_COMPONENT_KEY), url, task.get(TASK_ANALYSIS_ID));
+  }
+
+  /**
+   * Only reads the response up to the requested fields, without building the whole document.
+   */
+  private Map<String, String> getFields(String url, List<String> fields, String... mandatoryFields) {
+    Map<String, String> values;
+    try {
+      values = client.getHttp(url, token, reader -> JsonFieldExtractor.extract(reader, fields));
+    } catch (JSONException e) {
+      throw new IllegalStateException("Unable to parse response from " + url, e);
+    }
+    for (String field : mandatoryFields) {
+      if (!values.containsKey(field)) {
+        throw new IllegalStateException("Unable to parse response from " + url + ": no " + field);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Requests the most recent CE tasks of the whole server in a single call.
+   * Only allowed to users having the global 'Administer System' permission.
+   * @return tasks by id
+   */
+  public Map<String, CETask> getCEActivity() {
+    String url = serverUrl + API_CE_ACTIVITY + CE_ACTIVITY_MAX_PAGE_SIZE;
     String text = client.getHttp(url, token);
     try {
       JSONObject json = (JSONObject) JSONSerializer.toJSON(text);
-      JSONObject task = json.getJSONObject("task");
-
-      String status = task.getString(STATUS_ATTR);
-      String componentName = task.getString("componentName");
-      String componentKey = task.getString("componentKey");
-      // No analysisId if task is pending
-      String analysisId = task.optString("analysisId", null);
-      return new CETask(status, componentName, componentKey, url, analysisId);
+      JSONArray tasks = json.getJSONArray("tasks");
+      Map<String, CETask> result = new HashMap<>(tasks.size() * 2);
+      for (int i = 0; i < tasks.size(); i++) {
+        JSONObject task = tasks.getJSONObject(i);
+        String id = task.getString("id");
+        result.put(id, new CETask(task.getString(STATUS_ATTR), task.optString("componentName", null), task.optString("componentKey", null),
+          serverUrl + API_CE_TASK + id, task.optString("analysisId", null)));
+      }
+      return result;
     } catch (JSONException e) {
       throw new IllegalStateException("Unable to parse response from " + url + ":\n" + text, e);
     }
+  }
+
+  String getServerUrl() {
+    return serverUrl;
+  }
 
+  @CheckForNull
+  String getTokenDigest() {
+    return tokenDigest;
   }
 
   public String requestQualityGateStatus(String analysisId) {
     String url = serverUrl + API_PROJECT_STATUS_WITH_ANALYSISID + encode(analysisId);
-    String text = client.getHttp(url, token);
-    try {
-      JSONObject json = (JSONObject) JSONSerializer.toJSON(text);
-      JSONObject projectStatus = json.getJSONObject("projectStatus");
+    return QUALITY_GATES.get(new Request(url, tokenDigest), r -> requestQualityGateStatus(url));
+  }
 
-      return projectStatus.getString(STATUS_ATTR);
-    } catch (JSONException e) {
-      throw new IllegalStateException("Unable to parse response from " + url + ":\n" + text, e);
-    }
+  private String requestQualityGateStatus(String url) {
+    return getFields(url, QUALITY_GATE_FIELDS, PROJECT_STATUS).get(PROJECT_STATUS);
+  }
+
+  /**
+   * Forgets the memoized tasks and quality gates, for example when servers are reconfigured.
+   */
+  public static void invalidateMemos() {
+    TERMINAL_TASKS.invalidateAll();
+    QUALITY_GATES.invalidateAll();
+  }
+
+  /**
+   * @return hit/miss counters of the memoized tasks in a terminal state
+   */
+  public static CacheStats getTerminalTaskStats() {
+    return TERMINAL_TASKS.stats();
+  }
+
+  /**
+   * @return hit/miss counters of the memoized quality gates
+   */
+  public static CacheStats getQualityGateStats() {
+    return QUALITY_GATES.stats();
   }
 
   public String getServerVersion() {
@@ -84,7 +203,36 @@ public class WsClient {
     return URLEncoder.encode(param, StandardCharsets.UTF_8);
   }
 
-  public static class CETask {
+  private static final class Request {
+    private final String url;
+    @Nullable
+    private final String tokenDigest;
+
+    private Request(String url, @Nullable String tokenDigest) {
+      this.url = url;
+      this.tokenDigest = tokenDigest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Request request = (Request) o;
+      return url.equals(request.url) && Objects.equals(tokenDigest, request.tokenDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, tokenDigest);
+    }
+  }
+
+  public static class CETask implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     public static final String STATUS_SUCCESS = "SUCCESS";
     public static final String STATUS_FAILURE = "FAILED";
@@ -120,6 +268,13 @@ public class WsClient {
       return componentKey;
     }
 
+    /**
+     * @return true if the status of the task won't change anymore
+     */
+    public boolean isTerminal() {
+      return STATUS_SUCCESS.equalsIgnoreCase(status) || STATUS_FAILURE.equalsIgnoreCase(status) || STATUS_CANCELED.equalsIgnoreCase(status);
+    }
+
     /**
      * @return null if status is PENDING
      */
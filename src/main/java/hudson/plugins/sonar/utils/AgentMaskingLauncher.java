@@ -0,0 +1,200 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.CloseProofOutputStream;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Launches the processes of an agent with their output masked on the agent itself, so that secrets don't cross the
+ * remoting channel and the controller only receives masked bytes.
+ * <p>
+ * Only the launches that would go straight to the agent are handled, with the output and errors merged as most build
+ * steps do: the others are left to the wrapped launcher, and masked by the log filter on the controller. The output
+ * masked on the agent is marked as such, so that the log filter doesn't scan it again.
+ */
+public class AgentMaskingLauncher extends Launcher.DecoratedLauncher {
+  private final SecretMatcher passwordsMatcher;
+  private final Charset charset;
+
+  public AgentMaskingLauncher(Launcher inner, SecretMatcher passwordsMatcher, Charset charset) {
+    super(inner);
+    this.passwordsMatcher = passwordsMatcher;
+    this.charset = charset;
+  }
+
+  @Override
+  public Proc launch(ProcStarter starter) throws IOException {
+    VirtualChannel channel = getChannel();
+    String unsupported = unsupportedReason(starter, channel);
+    if (unsupported != null) {
+      Logger.LOG.info(() -> "Output of " + starter.cmds() + " masked on the controller: " + unsupported);
+      return super.launch(starter);
+    }
+    OutputStream out = new RemoteOutputStream(new CloseProofOutputStream(MaskPasswordsOutputStream.premasked(starter.stdout(), passwordsMatcher)));
+    MaskedLaunch launch = new MaskedLaunch(starter.cmds(), starter.masks(), starter.envs(), starter.pwd() != null ? starter.pwd().getRemote() : null,
+      starter.quiet(), out, passwordsMatcher, charset.name());
+    return new AgentProc(channel.callAsync(launch));
+  }
+
+  @CheckForNull
+  private String unsupportedReason(ProcStarter starter, @CheckForNull VirtualChannel channel) {
+    if (!(getInner() instanceof Launcher.RemoteLauncher) || channel == null) {
+      return "not launched directly on an agent";
+    }
+    if (starter.stdout() == null) {
+      return "output read by the caller";
+    }
+    if (starter.stderr() != null) {
+      return "errors written separately";
+    }
+    if (starter.stdin() != null) {
+      return "input provided";
+    }
+    return null;
+  }
+
+  private static final class MaskedLaunch extends MasterToSlaveCallable<Integer, IOException> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> cmds;
+    private final boolean[] masks;
+    private final String[] envs;
+    private final String pwd;
+    private final boolean quiet;
+    private final OutputStream out;
+    private final SecretMatcher passwordsMatcher;
+    private final String charset;
+
+    MaskedLaunch(List<String> cmds, @CheckForNull boolean[] masks, String[] envs, @CheckForNull String pwd, boolean quiet, OutputStream out,
+      SecretMatcher passwordsMatcher, String charset) {
+      this.cmds = cmds;
+      this.masks = masks;
+      this.envs = envs;
+      this.pwd = pwd;
+      this.quiet = quiet;
+      this.out = out;
+      this.passwordsMatcher = passwordsMatcher;
+      this.charset = charset;
+    }
+
+    @Override
+    public Integer call() throws IOException {
+      Charset cs = Charset.forName(charset);
+      int exitCode;
+      // the command line printed by the launcher is masked too
+      try (OutputStream masked = new MaskPasswordsOutputStream(out, cs, passwordsMatcher)) {
+        Launcher.ProcStarter starter = new Launcher.LocalLauncher(new StreamTaskListener(masked, cs)).launch()
+          .cmds(cmds)
+          .envs(envs)
+          .stdout(masked)
+          .quiet(quiet);
+        if (masks != null) {
+          starter.masks(masks);
+        }
+        if (pwd != null) {
+          starter.pwd(pwd);
+        }
+        exitCode = starter.join();
+      } catch (InterruptedException e) {
+        // the launch was canceled: the local process has been killed
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+      // make sure the output is delivered to the controller before the exit code
+      try {
+        Channel.currentOrFail().syncIO();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+      return exitCode;
+    }
+  }
+
+  private static final class AgentProc extends Proc {
+    private final Future<Integer> exitCode;
+
+    AgentProc(Future<Integer> exitCode) {
+      this.exitCode = exitCode;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !exitCode.isDone();
+    }
+
+    @Override
+    public void kill() throws IOException, InterruptedException {
+      exitCode.cancel(true);
+    }
+
+    @Override
+    public int join() throws IOException, InterruptedException {
+      try {
+        return exitCode.get();
+      } catch (InterruptedException e) {
+        exitCode.cancel(true);
+        throw e;
+      } catch (CancellationException e) {
+        throw new InterruptedException("Process killed");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    @Override
+    @CheckForNull
+    public InputStream getStdout() {
+      return null;
+    }
+
+    @Override
+    @CheckForNull
+    public InputStream getStderr() {
+      return null;
+    }
+
+    @Override
+    @CheckForNull
+    public OutputStream getStdin() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.sf.json.JSONException;
+
+/**
+ * Pulls a few fields out of a JSON object while reading it, without building the whole document in memory.
+ * Fields are designated by their path of keys separated by dots, like {@code project.name}; the content of arrays is skipped.
+ * Reading stops as soon as all the fields have been found. As with json-lib, keys don't have to be quoted.
+ */
+public final class JsonFieldExtractor {
+  private static final int NONE = -2;
+  private static final int MAX_DEPTH = 64;
+
+  private final Reader reader;
+  private final Set<String> paths;
+  private final Set<String> prefixes = new HashSet<>();
+  private final Map<String, String> values = new HashMap<>();
+  private int pushedBack = NONE;
+  private int depth;
+
+  private JsonFieldExtractor(Reader reader, Collection<String> paths) {
+    this.reader = reader;
+    this.paths = new HashSet<>(paths);
+    for (String path : paths) {
+      for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1)) {
+        prefixes.add(path.substring(0, i));
+      }
+    }
+  }
+
+  /**
+   * @return the string representation of the requested fields that were found, null values being left out
+   * @throws JSONException if the document is not a well-formed JSON object, as far as it was read
+   */
+  public static Map<String, String> extract(Reader reader, Collection<String> paths) throws IOException {
+    JsonFieldExtractor extractor = new JsonFieldExtractor(reader instanceof BufferedReader ? reader : new BufferedReader(reader), paths);
+    if (extractor.nextNonWhitespace() != '{') {
+      throw new JSONException("A JSON object text must begin with '{'");
+    }
+    if (!extractor.paths.isEmpty()) {
+      extractor.readObject("");
+    }
+    return extractor.values;
+  }
+
+  /**
+   * Reads the members of an object whose opening brace was consumed.
+   * @param path path of the object, or null if none of its fields is requested
+   * @return true once all the requested fields have been found
+   */
+  private boolean readObject(@Nullable String path) throws IOException {
+    enter();
+    int c = nextNonWhitespace();
+    if (c == '}') {
+      depth--;
+      return false;
+    }
+    while (true) {
+      String key = c == '"' || c == '\'' ? readString(c) : readLiteral(c);
+      if (nextNonWhitespace() != ':') {
+        throw new JSONException("Expected ':' after key " + key);
+      }
+      if (readValue(childPath(path, key))) {
+        return true;
+      }
+      c = nextNonWhitespace();
+      if (c == '}') {
+        depth--;
+        return false;
+      }
+      if (c != ',') {
+        throw new JSONException("Expected ',' or '}' after the value of " + key);
+      }
+      c = nextNonWhitespace();
+    }
+  }
+
+  @Nullable
+  private String childPath(@Nullable String path, String key) {
+    if (path == null) {
+      return null;
+    }
+    String child = path.isEmpty() ? key : (path + "." + key);
+    return paths.contains(child) || prefixes.contains(child) ? child : null;
+  }
+
+  private boolean readValue(@Nullable String path) throws IOException {
+    int c = nextNonWhitespace();
+    switch (c) {
+      case '{':
+        return readObject(path);
+      case '[':
+        skipArray();
+        return false;
+      case '"':
+      case '\'':
+        return found(path, readString(c));
+      default:
+        String literal = readLiteral(c);
+        return found(path, "null".equals(literal) ? null : literal);
+    }
+  }
+
+  private boolean found(@Nullable String path, @Nullable String value) {
+    if (path != null && value != null && paths.contains(path)) {
+      values.put(path, value);
+      return values.size() == paths.size();
+    }
+    return false;
+  }
+
+  private void skipArray() throws IOException {
+    enter();
+    int c = nextNonWhitespace();
+    if (c == ']') {
+      depth--;
+      return;
+    }
+    pushedBack = c;
+    while (true) {
+      readValue(null);
+      c = nextNonWhitespace();
+      if (c == ']') {
+        depth--;
+        return;
+      }
+      if (c != ',') {
+        throw new JSONException("Expected ',' or ']' in array");
+      }
+    }
+  }
+
+  private void enter() {
+    if (++depth > MAX_DEPTH) {
+      throw new JSONException("JSON document nested too deeply");
+    }
+  }
+
+  private String readString(int quote) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int c = read();
+      if (c == quote) {
+        return sb.toString();
+      }
+      switch (c) {
+        case -1:
+          throw new JSONException("Unterminated string");
+        case '\\':
+          sb.append(readEscaped());
+          break;
+        default:
+          sb.append((char) c);
+      }
+    }
+  }
+
+  private char readEscaped() throws IOException {
+    int c = read();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0) {
+            throw new JSONException("Invalid unicode escape");
+          }
+          code = code * 16 + digit;
+        }
+        return (char) code;
+      case -1:
+        throw new JSONException("Unterminated string");
+      default:
+        // \" \\ \/ and the lenient escapes accepted by json-lib
+        return (char) c;
+    }
+  }
+
+  /**
+   * Reads an unquoted token: number, boolean, null or key.
+   */
+  private String readLiteral(int first) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c = first;
+    while (c != -1 && !Character.isWhitespace(c) && ",:]}".indexOf(c) < 0) {
+      if (c == '{' || c == '[' || c == '"') {
+        throw new JSONException("Unexpected character '" + (char) c + "'");
+      }
+      sb.append((char) c);
+      c = read();
+    }
+    pushedBack = c;
+    if (sb.length() == 0) {
+      throw new JSONException(c == -1 ? "Unexpected end of JSON document" : ("Unexpected character '" + (char) c + "'"));
+    }
+    return sb.toString();
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    int c = read();
+    while (c != -1 && Character.isWhitespace(c)) {
+      c = read();
+    }
+    return c;
+  }
+
+  private int read() throws IOException {
+    if (pushedBack != NONE) {
+      int c = pushedBack;
+      pushedBack = NONE;
+      return c;
+    }
+    return reader.read();
+  }
+}
@@ -19,68 +19,103 @@
  */
 package hudson.plugins.sonar.utils;
 
+import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.console.LineTransformationOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.regex.Pattern;
-import org.apache.commons.lang3.StringUtils;
 
 /**
- * Class adapted from the mask-passwords plugin
+ * Class adapted from the mask-passwords plugin. Lines are scanned as bytes, and copied untouched when they hold no password.
  */
 public class MaskPasswordsOutputStream extends LineTransformationOutputStream {
   private static final String REPLACEMENT = "******";
   private static final String URL_IN_LOGS = "ANALYSIS SUCCESSFUL, you can browse ";
+  /**
+   * Bytes already masked being written by the current thread, if any.
+   */
+  private static final ThreadLocal<PremaskedSegment> PREMASKED = new ThreadLocal<>();
   private final OutputStream logger;
-  private final Pattern passwordsAsPattern;
-  private final Charset charset;
+  @Nullable
+  private final SecretMatcher passwordsMatcher;
+  private final byte[] replacement;
+  private final byte[] urlInLogs;
+  // the pending line holds bytes that were not masked upstream
+  private boolean unmaskedInLine;
 
   public MaskPasswordsOutputStream(OutputStream logger, Charset charset, Collection<String> passwords) {
+    this(logger, charset, SecretMatcher.compile(passwords, charset));
+  }
 
+  /**
+   * @param passwordsMatcher compiled with the same charset, null if there is nothing to mask
+   */
+  public MaskPasswordsOutputStream(OutputStream logger, Charset charset, @Nullable SecretMatcher passwordsMatcher) {
     this.logger = logger;
-    this.charset = charset;
-
-    if (!passwords.isEmpty()) {
-
-      // passwords are aggregated into a regex which is compiled as a pattern
-      // for efficiency
-      StringBuilder regex = new StringBuilder().append('(');
+    this.passwordsMatcher = passwordsMatcher;
+    this.replacement = REPLACEMENT.getBytes(charset);
+    this.urlInLogs = URL_IN_LOGS.getBytes(charset);
+  }
 
-      int nbMaskedPasswords = 0;
-      for (String password : passwords) {
-        // we must not handle empty passwords
-        if (StringUtils.isNotEmpty(password)) {
-          regex.append(Pattern.quote(password));
-          regex.append('|');
-          nbMaskedPasswords++;
+  /**
+   * Wraps a stream receiving output already masked by the given matcher, typically on an agent, so that the
+   * {@link MaskPasswordsOutputStream}s with the same matcher further down copy it without scanning it again.
+   * <p>
+   * Only the very bytes written through the returned stream are trusted: a line that also holds bytes from elsewhere,
+   * or that was copied by a stream in between, is scanned as usual.
+   */
+  public static OutputStream premasked(OutputStream out, SecretMatcher passwordsMatcher) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        PremaskedSegment previous = PREMASKED.get();
+        PREMASKED.set(new PremaskedSegment(passwordsMatcher, b, off, len));
+        try {
+          out.write(b, off, len);
+        } finally {
+          PREMASKED.set(previous);
         }
       }
-      // is there at least one password to mask?
-      if (nbMaskedPasswords >= 1) {
-        // removes the last unuseful pipe
-        regex.deleteCharAt(regex.length() - 1);
-        regex.append(')');
-        passwordsAsPattern = Pattern.compile(regex.toString());
-      } else {
-        // no passwords to hide
-        passwordsAsPattern = null;
-      }
-    } else {
-      // no passwords to hide
-      passwordsAsPattern = null;
+    };
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    append(b, false);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    boolean premasked = isPremasked(b, off, len);
+    for (int i = off; i < off + len; i++) {
+      append(b[i], premasked);
     }
   }
 
+  private void append(int b, boolean premasked) throws IOException {
+    if (!premasked) {
+      unmaskedInLine = true;
+    }
+    super.write(b);
+  }
+
+  private boolean isPremasked(byte[] b, int off, int len) {
+    PremaskedSegment segment = PREMASKED.get();
+    // compiled matchers are shared by the filters masking the same secrets
+    return passwordsMatcher != null && segment != null && segment.passwordsMatcher == passwordsMatcher && segment.contains(b, off, len);
+  }
+
   @Override
   protected void eol(byte[] bytes, int len) throws IOException {
-    String line = charset.decode(ByteBuffer.wrap(bytes, 0, len)).toString();
-    if (passwordsAsPattern != null && !line.contains(URL_IN_LOGS)) {
-      line = passwordsAsPattern.matcher(line).replaceAll(REPLACEMENT);
+    boolean premasked = !unmaskedInLine;
+    unmaskedInLine = false;
+    if (premasked || passwordsMatcher == null || !passwordsMatcher.containsAny(bytes, len) || ScannerOutputTap.indexOf(bytes, len, urlInLogs) >= 0) {
+      logger.write(bytes, 0, len);
+    } else {
+      passwordsMatcher.writeMasked(bytes, len, replacement, logger);
     }
-    logger.write(line.getBytes(charset));
   }
 
   @Override
@@ -88,4 +123,22 @@ public class MaskPasswordsOutputStream extends LineTransformationOutputStream {
     super.close();
     logger.close();
   }
+
+  private static final class PremaskedSegment {
+    private final SecretMatcher passwordsMatcher;
+    private final byte[] bytes;
+    private final int off;
+    private final int len;
+
+    private PremaskedSegment(SecretMatcher passwordsMatcher, byte[] bytes, int off, int len) {
+      this.passwordsMatcher = passwordsMatcher;
+      this.bytes = bytes;
+      this.off = off;
+      this.len = len;
+    }
+
+    boolean contains(byte[] b, int off, int len) {
+      return b == bytes && off >= this.off && off + len <= this.off + this.len;
+    }
+  }
 }
@@ -0,0 +1,209 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.console.LineTransformationOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Forwards the console output unchanged, while watching for the lines printed by the scanners at the end of an analysis.
+ * This way the analysis metadata is known as soon as the scanner prints it, without looking for report-task.txt in the workspace.
+ * Only the lines of the scanners are considered, and only the first analysis, like the first report-task.txt found.
+ */
+public class ScannerOutputTap extends LineTransformationOutputStream {
+  private static final String REPORT_PROCESSING_MARKER = "More about the report processing at ";
+  private static final String CE_TASK_PATH = "/api/ce/task?id=";
+  private static final String REPORT_TASK_MARKER = "Report metadata written to ";
+  private static final String[] DASHBOARD_MARKERS = {
+    "ANALYSIS SUCCESSFUL, you can browse ",
+    "ANALYSIS SUCCESSFUL, you can find the results at: "
+  };
+
+  private static final byte[] REPORT_PROCESSING_BYTES = ascii(REPORT_PROCESSING_MARKER);
+  private static final byte[] REPORT_TASK_BYTES = ascii(REPORT_TASK_MARKER);
+  private static final byte[] ANALYSIS_SUCCESSFUL_BYTES = ascii("ANALYSIS SUCCESSFUL, you can ");
+  private static final byte[] JAVA_11_WARNING_BYTES = ascii(SonarUtils.JAVA_11_WARNING);
+
+  private final OutputStream out;
+  private final Charset charset;
+  private final Result result;
+
+  public ScannerOutputTap(OutputStream out, Charset charset) {
+    this(out, charset, new Result());
+  }
+
+  public ScannerOutputTap(OutputStream out, Charset charset, Result result) {
+    this.out = out;
+    this.charset = charset;
+    this.result = result;
+  }
+
+  public Result getResult() {
+    return result;
+  }
+
+  @Override
+  protected void eol(byte[] bytes, int len) throws IOException {
+    out.write(bytes, 0, len);
+    // only decode the few lines that can carry something of interest
+    if (indexOf(bytes, len, REPORT_PROCESSING_BYTES) >= 0 || indexOf(bytes, len, ANALYSIS_SUCCESSFUL_BYTES) >= 0 || indexOf(bytes, len, REPORT_TASK_BYTES) >= 0) {
+      parse(new String(bytes, 0, len, charset).trim());
+    } else if (indexOf(bytes, len, JAVA_11_WARNING_BYTES) >= 0) {
+      result.java11Warning = true;
+    }
+  }
+
+  private void parse(String line) {
+    if (result.ceTaskId != null) {
+      // the task of the first analysis is already known
+      return;
+    }
+    int idx = line.indexOf(REPORT_PROCESSING_MARKER);
+    if (idx >= 0) {
+      String taskUrl = token(line, idx + REPORT_PROCESSING_MARKER.length());
+      int path = taskUrl.indexOf(CE_TASK_PATH);
+      if (path > 0 && path + CE_TASK_PATH.length() < taskUrl.length()) {
+        result.serverUrl = taskUrl.substring(0, path);
+        result.ceTaskId = taskUrl.substring(path + CE_TASK_PATH.length());
+      }
+      return;
+    }
+    for (String marker : DASHBOARD_MARKERS) {
+      idx = line.indexOf(marker);
+      if (idx >= 0) {
+        if (result.dashboardUrl == null) {
+          result.dashboardUrl = token(line, idx + marker.length());
+        }
+        return;
+      }
+    }
+    // only printed in debug mode
+    idx = line.indexOf(REPORT_TASK_MARKER);
+    if (idx >= 0 && result.reportTaskPath == null) {
+      result.reportTaskPath = line.substring(idx + REPORT_TASK_MARKER.length()).trim();
+    }
+  }
+
+  private static String token(String line, int start) {
+    int end = start;
+    while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+      end++;
+    }
+    return line.substring(start, end);
+  }
+
+  static int indexOf(byte[] bytes, int len, byte[] marker) {
+    int last = len - marker.length;
+    for (int i = 0; i <= last; i++) {
+      int j = 0;
+      while (j < marker.length && bytes[i + j] == marker[j]) {
+        j++;
+      }
+      if (j == marker.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    out.close();
+  }
+
+  /**
+   * What the scanners printed so far. Written by the thread copying the console output, read once the analysis is over.
+   */
+  public static final class Result {
+    private volatile String serverUrl;
+    private volatile String dashboardUrl;
+    private volatile String ceTaskId;
+    private volatile String reportTaskPath;
+    private volatile boolean java11Warning;
+
+    @CheckForNull
+    public String getServerUrl() {
+      return serverUrl;
+    }
+
+    @CheckForNull
+    public String getDashboardUrl() {
+      return dashboardUrl;
+    }
+
+    @CheckForNull
+    public String getCeTaskId() {
+      return ceTaskId;
+    }
+
+    /**
+     * @return absolute path of report-task.txt on the machine that ran the scanner, only printed by the scanners in debug mode
+     */
+    @CheckForNull
+    public String getReportTaskPath() {
+      return reportTaskPath;
+    }
+
+    public boolean isJava11Warning() {
+      return java11Warning;
+    }
+
+    /**
+     * @return true if the output of a completed analysis went through the tap
+     */
+    public boolean hasAnalysis() {
+      return ceTaskId != null || reportTaskPath != null;
+    }
+
+    /**
+     * @return the same properties as report-task.txt, or null if the task id was not printed
+     */
+    @CheckForNull
+    Properties toReportTask() {
+      if (ceTaskId == null) {
+        return null;
+      }
+      Properties p = new Properties();
+      p.setProperty(SonarUtils.CE_TASK_ID_KEY, ceTaskId);
+      if (serverUrl != null) {
+        p.setProperty(SonarUtils.SERVER_URL_KEY, serverUrl);
+      }
+      if (dashboardUrl != null) {
+        p.setProperty(SonarUtils.DASHBOARD_URL_KEY, dashboardUrl);
+      }
+      return p;
+    }
+  }
+}
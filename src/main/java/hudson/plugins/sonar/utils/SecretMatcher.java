@@ -0,0 +1,350 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import jenkins.util.SystemProperties;
+
+/**
+ * Finds secrets in raw bytes, with an Aho-Corasick automaton built over their encoded form: a line is scanned once
+ * whatever the number of secrets, and nothing is allocated unless a secret is found.
+ * <p>
+ * Compiled matchers are shared by all the streams masking the same secrets, in this JVM. A matcher is serialized as
+ * its secrets only, and the automaton is rebuilt (or found in the cache) on the other side of the channel.
+ */
+public final class SecretMatcher implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final int ROOT = 0;
+  private static final long CACHE_SIZE = SystemProperties.getLong(SecretMatcher.class.getName() + ".cacheSize", 100L);
+
+  /**
+   * Keyed by a digest of the secrets, so that the keys don't hold them.
+   */
+  private static final Cache<String, SecretMatcher> COMPILED = Caffeine.newBuilder()
+    .maximumSize(CACHE_SIZE)
+    .expireAfterAccess(Duration.ofHours(1))
+    .recordStats()
+    .build();
+
+  /**
+   * Distinct encoded secrets, in unsigned lexicographic order.
+   */
+  private final byte[][] secrets;
+
+  /**
+   * Next state from the root for each byte, the root being where the scan spends most of its time.
+   */
+  private final int[] rootNext;
+  /**
+   * Children of a state are childBytes/childTargets[childStart[state]..childStart[state + 1]), sorted by unsigned byte.
+   */
+  private final int[] childStart;
+  private final byte[] childBytes;
+  private final int[] childTargets;
+  private final int[] fail;
+  /**
+   * Length of the longest secret ending at a state, 0 if none.
+   */
+  private final int[] matchLength;
+
+  private SecretMatcher(byte[][] secrets) {
+    this.secrets = secrets;
+    List<Map<Integer, Integer>> children = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    children.add(new HashMap<>());
+    lengths.add(0);
+    for (byte[] secret : secrets) {
+      int state = ROOT;
+      for (byte b : secret) {
+        Integer next = children.get(state).get(b & 0xff);
+        if (next == null) {
+          next = children.size();
+          children.add(new HashMap<>());
+          lengths.add(0);
+          children.get(state).put(b & 0xff, next);
+        }
+        state = next;
+      }
+      lengths.set(state, secret.length);
+    }
+
+    int states = children.size();
+    childStart = new int[states + 1];
+    int edges = 0;
+    for (int s = 0; s < states; s++) {
+      childStart[s] = edges;
+      edges += children.get(s).size();
+    }
+    childStart[states] = edges;
+    childBytes = new byte[edges];
+    childTargets = new int[edges];
+    for (int s = 0; s < states; s++) {
+      int i = childStart[s];
+      int[] keys = children.get(s).keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+      for (int key : keys) {
+        childBytes[i] = (byte) key;
+        childTargets[i] = children.get(s).get(key);
+        i++;
+      }
+    }
+
+    rootNext = new int[256];
+    for (int i = childStart[ROOT]; i < childStart[ROOT + 1]; i++) {
+      rootNext[childBytes[i] & 0xff] = childTargets[i];
+    }
+
+    fail = new int[states];
+    matchLength = new int[states];
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(ROOT);
+    while (!queue.isEmpty()) {
+      int s = queue.poll();
+      matchLength[s] = Math.max(lengths.get(s), matchLength[fail[s]]);
+      for (int i = childStart[s]; i < childStart[s + 1]; i++) {
+        int child = childTargets[i];
+        fail[child] = s == ROOT ? ROOT : next(fail[s], childBytes[i]);
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * @return null if there is no secret to look for
+   */
+  @CheckForNull
+  public static SecretMatcher compile(Collection<String> secrets, Charset charset) {
+    List<byte[]> encoded = new ArrayList<>();
+    for (String secret : secrets) {
+      // we must not handle empty passwords
+      if (secret != null && !secret.isEmpty()) {
+        encoded.add(secret.getBytes(charset));
+      }
+    }
+    return of(encoded);
+  }
+
+  @CheckForNull
+  private static SecretMatcher of(Collection<byte[]> encoded) {
+    byte[][] sorted = encoded.toArray(new byte[0][]);
+    Arrays.sort(sorted, Arrays::compareUnsigned);
+    List<byte[]> distinct = new ArrayList<>();
+    for (byte[] secret : sorted) {
+      if (secret.length > 0 && (distinct.isEmpty() || !Arrays.equals(distinct.get(distinct.size() - 1), secret))) {
+        distinct.add(secret);
+      }
+    }
+    byte[][] secrets = distinct.toArray(new byte[0][]);
+    if (secrets.length == 0) {
+      return null;
+    }
+    return COMPILED.get(digest(secrets), k -> new SecretMatcher(secrets));
+  }
+
+  private static String digest(byte[][] secrets) {
+    MessageDigest sha256;
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (byte[] secret : secrets) {
+      // length prefixed, so that {"ab", "c"} and {"a", "bc"} don't collide
+      int length = secret.length;
+      sha256.update(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+      sha256.update(secret);
+    }
+    return Base64.getEncoder().encodeToString(sha256.digest());
+  }
+
+  @VisibleForTesting
+  static void invalidateCache() {
+    COMPILED.invalidateAll();
+  }
+
+  public static CacheStats getCacheStats() {
+    return COMPILED.stats();
+  }
+
+  /**
+   * @return the secret and the forms it can take in the logs: Base64 in Basic authentication headers, URL-encoded in
+   * URLs, and escaped in JSON documents like SONARQUBE_SCANNER_PARAMS
+   */
+  public static Set<String> withEncodedForms(String secret) {
+    Set<String> forms = new LinkedHashSet<>();
+    forms.add(secret);
+    Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+    // the token is the user name, with an empty password
+    forms.add(base64.encodeToString((secret + ":").getBytes(StandardCharsets.UTF_8)));
+    forms.add(base64.encodeToString(secret.getBytes(StandardCharsets.UTF_8)));
+    forms.add(URLEncoder.encode(secret, StandardCharsets.UTF_8));
+    // escaping the solidus is optional
+    forms.add(jsonEscape(secret, false));
+    forms.add(jsonEscape(secret, true));
+    return forms;
+  }
+
+  private static String jsonEscape(String s, boolean escapeSolidus) {
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\' || (escapeSolidus && c == '/')) {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private int next(int state, byte b) {
+    while (state != ROOT) {
+      int target = child(state, b);
+      if (target >= 0) {
+        return target;
+      }
+      state = fail[state];
+    }
+    return rootNext[b & 0xff];
+  }
+
+  private int child(int state, byte b) {
+    int low = childStart[state];
+    int high = childStart[state + 1] - 1;
+    int key = b & 0xff;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midKey = childBytes[mid] & 0xff;
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return childTargets[mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if at least one secret is in the first len bytes
+   */
+  public boolean containsAny(byte[] bytes, int len) {
+    int state = ROOT;
+    for (int i = 0; i < len; i++) {
+      state = next(state, bytes[i]);
+      if (matchLength[state] > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the first len bytes, each secret being replaced. Overlapping secrets are replaced at once.
+   */
+  public void writeMasked(byte[] bytes, int len, byte[] replacement, OutputStream out) throws IOException {
+    int[] starts = new int[len];
+    int[] ends = new int[len];
+    int ranges = 0;
+    int state = ROOT;
+    for (int i = 0; i < len; i++) {
+      state = next(state, bytes[i]);
+      int length = matchLength[state];
+      if (length > 0) {
+        int start = i - length + 1;
+        // secrets are found by end position: drop the ranges contained in this one, extend the one it overlaps
+        while (ranges > 0 && starts[ranges - 1] >= start) {
+          ranges--;
+        }
+        if (ranges > 0 && ends[ranges - 1] >= start) {
+          ends[ranges - 1] = i;
+        } else {
+          starts[ranges] = start;
+          ends[ranges] = i;
+          ranges++;
+        }
+      }
+    }
+    int written = 0;
+    for (int r = 0; r < ranges; r++) {
+      out.write(bytes, written, starts[r] - written);
+      out.write(replacement);
+      written = ends[r] + 1;
+    }
+    out.write(bytes, written, len - written);
+  }
+
+  private Object writeReplace() {
+    return new SerializedForm(secrets);
+  }
+
+  private void readObject(ObjectInputStream in) throws InvalidObjectException {
+    throw new InvalidObjectException("SerializedForm required");
+  }
+
+  /**
+   * What is sent to the agents: the encoded secrets, much smaller than the automaton.
+   */
+  private static final class SerializedForm implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[][] secrets;
+
+    SerializedForm(byte[][] secrets) {
+      this.secrets = secrets;
+    }
+
+    private Object readResolve() throws InvalidObjectException {
+      SecretMatcher matcher = secrets != null ? of(Arrays.asList(secrets)) : null;
+      if (matcher == null) {
+        throw new InvalidObjectException("No secret");
+      }
+      return matcher;
+    }
+  }
+}
@@ -99,7 +99,7 @@ public final class SonarMaven extends Maven {
 
     String token = getInstallation().getServerAuthenticationToken(build);
     if (StringUtils.isNotBlank(token)) {
-      argsBuilder.appendMasked(SonarUtils.getTokenProperty(getInstallation(), new HttpClient(OkHttpClientSingleton.getInstance())), token);
+      argsBuilder.appendMasked(SonarUtils.getTokenProperty(getInstallation(), new HttpClient(OkHttpClientSingleton.getInstance(getInstallation()))), token);
     }
 
     if (build instanceof MavenModuleSetBuild) {
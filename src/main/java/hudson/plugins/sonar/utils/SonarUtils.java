@@ -20,11 +20,14 @@
 package hudson.plugins.sonar.utils;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
 import hudson.FilePath;
-import hudson.Util;
 import hudson.model.Action;
 import hudson.model.Actionable;
 import hudson.model.Result;
@@ -39,18 +42,29 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import jenkins.MasterToSlaveFileCallable;
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 
 public final class SonarUtils {
@@ -63,6 +77,26 @@ public final class SonarUtils {
   public static final String PROPERTY_SONAR_TOKEN = "sonar.token";
   private static final String SONARCLOUD_URL = "https://sonarcloud.io";
   private static final String SONARCLOUD_US_URL = "https://sonarqube.us";
+  static final String JAVA_11_WARNING = "Please update to at least Java 11.";
+  private static final int LOG_SCAN_BUFFER_SIZE = 8192;
+  /**
+   * Directories where the scanners write report-task.txt by default, relative to the project base directory.
+   */
+  private static final String[] REPORT_TASK_DIRS = {".scannerwork", "target/sonar", "build/sonar", ".sonarqube/out/.sonar"};
+  /**
+   * Directories that are not worth walking when looking for report-task.txt.
+   */
+  private static final Set<String> PRUNED_DIRS = Set.of("node_modules", ".git", ".gradle", ".m2", ".svn", ".hg");
+  /**
+   * Server versions by installation. Keys are compared by identity: saving the global configuration creates new installations,
+   * so a changed server URL is never served a version cached for the previous one.
+   */
+  private static final Cache<SonarInstallation, Version> SERVER_VERSIONS = Caffeine.newBuilder()
+    .weakKeys()
+    .expireAfterWrite(SystemProperties.getLong(SonarUtils.class.getName() + ".serverVersionCacheTtlMinutes", 10L), TimeUnit.MINUTES)
+    .recordStats()
+    .build();
+  private static final int REPORT_TASK_SEARCH_DEPTH = SystemProperties.getInteger(SonarUtils.class.getName() + ".reportTaskSearchDepth", 10);
 
   /**
    * Hide utility-class constructor.
@@ -102,7 +136,7 @@ public final class SonarUtils {
   public static Properties extractReportTask(TaskListener listener, FilePath workspace) throws IOException, InterruptedException {
     FilePath[] candidates = null;
     if (workspace.exists()) {
-      candidates = workspace.act(new ListWithoutSymlinksCallable("**/" + REPORT_TASK_FILE_NAME));
+      candidates = workspace.act(new ListWithoutSymlinksCallable(REPORT_TASK_FILE_NAME, REPORT_TASK_SEARCH_DEPTH));
     }
     if (candidates == null || candidates.length == 0) {
       listener.getLogger().println("WARN: Unable to locate '" + REPORT_TASK_FILE_NAME + "' in the workspace. Did the SonarScanner succeed?");
@@ -112,41 +146,90 @@ public final class SonarUtils {
         listener.getLogger().println("WARN: Found multiple '" + REPORT_TASK_FILE_NAME + "' in the workspace. Taking the first one.");
         Stream.of(candidates).forEach(p -> listener.getLogger().println(p));
       }
-      FilePath reportTaskFile = candidates[0];
-      try (InputStream in = reportTaskFile.read()) {
-        Properties p = new Properties();
-        p.load(new InputStreamReader(in, StandardCharsets.UTF_8));
-        return p;
+      return readReportTask(candidates[0]);
+    }
+
+  }
+
+  /**
+   * Uses what the scanner printed to find the analysis metadata, without looking for report-task.txt in the whole workspace.
+   * @return null if nothing usable was printed
+   */
+  @CheckForNull
+  static Properties extractReportTask(FilePath workspace, ScannerOutputTap.Result scannerOutput) throws IOException, InterruptedException {
+    String reportTaskPath = scannerOutput.getReportTaskPath();
+    if (reportTaskPath != null) {
+      FilePath reportTaskFile = new FilePath(workspace.getChannel(), reportTaskPath);
+      if (reportTaskFile.exists()) {
+        return readReportTask(reportTaskFile);
       }
     }
+    return scannerOutput.toReportTask();
+  }
 
+  private static Properties readReportTask(FilePath reportTaskFile) throws IOException, InterruptedException {
+    try (InputStream in = reportTaskFile.read()) {
+      Properties p = new Properties();
+      p.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+      return p;
+    }
   }
 
   /**
-   * Similar to what is used for {@link FilePath#list(String)} but does not follow symlinks.
+   * Looks for a file in the directories where the scanners write it by default, then walks the directory tree.
+   * Similar to what is used for {@link FilePath#list(String)} but does not follow symlinks, skips the directories that can't contain
+   * an analysis report, is limited in depth and stops at the first match.
    */
   private static class ListWithoutSymlinksCallable extends MasterToSlaveFileCallable<FilePath[]> {
-    private static final long serialVersionUID = 1L;
-    private final String includes;
+    private static final long serialVersionUID = 2L;
+    private final String fileName;
+    private final int maxDepth;
 
-    ListWithoutSymlinksCallable(String includes) {
-      this.includes = includes;
+    ListWithoutSymlinksCallable(String fileName, int maxDepth) {
+      this.fileName = fileName;
+      this.maxDepth = maxDepth;
     }
 
     @Override
-    public FilePath[] invoke(File dir, VirtualChannel channel) {
-      FileSet fs = Util.createFileSet(dir, includes, null);
-      fs.setDefaultexcludes(true);
-      fs.setFollowSymlinks(false);
-
-      DirectoryScanner ds = fs.getDirectoryScanner(new Project());
-      String[] includedFiles = ds.getIncludedFiles();
-
-      FilePath[] filePaths = new FilePath[includedFiles.length];
-      for (int i = 0; i < filePaths.length; i++) {
-        filePaths[i] = new FilePath(new File(dir, includedFiles[i]));
+    public FilePath[] invoke(File dir, VirtualChannel channel) throws IOException {
+      Path root = dir.toPath();
+      List<FilePath> found = new ArrayList<>();
+      for (String knownDir : REPORT_TASK_DIRS) {
+        Path candidate = root.resolve(knownDir).resolve(fileName);
+        if (Files.isRegularFile(candidate, LinkOption.NOFOLLOW_LINKS)) {
+          found.add(new FilePath(candidate.toFile()));
+        }
+      }
+      if (!found.isEmpty()) {
+        return found.toArray(new FilePath[0]);
       }
-      return filePaths;
+
+      Path[] match = new Path[1];
+      Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+          if (!d.equals(root) && PRUNED_DIRS.contains(d.getFileName().toString())) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile() && fileName.equals(file.getFileName().toString())) {
+            match[0] = file;
+            return FileVisitResult.TERMINATE;
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          // unreadable entries are ignored, as the directory scanner did
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      return match[0] != null ? new FilePath[] {new FilePath(match[0].toFile())} : new FilePath[0];
     }
   }
 
@@ -158,10 +241,20 @@ public final class SonarUtils {
   public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId,
     boolean skippedIfNoBuild)
     throws IOException, InterruptedException {
+    return addBuildInfoTo(build, listener, workspace, sonarInstallation, credentialId, skippedIfNoBuild, null);
+  }
+
+  /**
+   * Same as {@link #addBuildInfoTo(Run, TaskListener, FilePath, SonarInstallation, String, boolean)}, using what was captured from
+   * the scanner output when available. The console log and the workspace are only searched when nothing was captured.
+   */
+  public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId,
+    boolean skippedIfNoBuild, @Nullable ScannerOutputTap.Result scannerOutput)
+    throws IOException, InterruptedException {
     SonarAnalysisAction buildInfo = createSonarAnalysisAction(sonarInstallation, credentialId, build, listener);
 
-    boolean java11Warning = build.getLog(Integer.MAX_VALUE).stream()
-      .anyMatch(line -> line.contains("Please update to at least Java 11."));
+    boolean captured = scannerOutput != null && scannerOutput.hasAnalysis();
+    boolean java11Warning = captured ? scannerOutput.isJava11Warning() : logContains(build, JAVA_11_WARNING);
 
     Result result = build.getResult();
     if (java11Warning && !Result.FAILURE.equals(result)) {
@@ -170,7 +263,10 @@ public final class SonarUtils {
         "Find more information here on how to do this: https://sonarcloud.io/documentation/appendices/move-analysis-java-11/");
     }
 
-    Properties reportTask = extractReportTask(listener, workspace);
+    Properties reportTask = captured ? extractReportTask(workspace, scannerOutput) : null;
+    if (reportTask == null) {
+      reportTask = extractReportTask(listener, workspace);
+    }
     if (reportTask != null) {
       buildInfo.setServerUrl(reportTask.getProperty(SERVER_URL_KEY));
       buildInfo.setUrl(reportTask.getProperty(DASHBOARD_URL_KEY));
@@ -183,11 +279,62 @@ public final class SonarUtils {
     return buildInfo;
   }
 
+  /**
+   * Looks for the given text in the console log of the build. The log is read through a fixed-size buffer and the scan stops at
+   * the first match, so memory use does not depend on the size of the log.
+   */
+  static boolean logContains(Run<?, ?> build, String text) throws IOException {
+    try (Reader reader = build.getLogReader()) {
+      return contains(reader, text);
+    }
+  }
+
+  @VisibleForTesting
+  static boolean contains(Reader reader, String text) throws IOException {
+    // keep the tail of the previous chunk, in case the text spans two reads
+    int overlap = text.length() - 1;
+    char[] buffer = new char[Math.max(LOG_SCAN_BUFFER_SIZE, 2 * text.length())];
+    int kept = 0;
+    int read;
+    while ((read = reader.read(buffer, kept, buffer.length - kept)) != -1) {
+      int len = kept + read;
+      if (indexOf(buffer, len, text) >= 0) {
+        return true;
+      }
+      kept = Math.min(overlap, len);
+      System.arraycopy(buffer, len - kept, buffer, 0, kept);
+    }
+    return false;
+  }
+
+  private static int indexOf(char[] buffer, int len, String text) {
+    int last = len - text.length();
+    char first = text.charAt(0);
+    for (int i = 0; i <= last; i++) {
+      if (buffer[i] != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < text.length() && buffer[i + j] == text.charAt(j)) {
+        j++;
+      }
+      if (j == text.length()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation)
     throws IOException, InterruptedException {
     return addBuildInfoTo(build, listener, workspace, sonarInstallation, sonarInstallation.getCredentialsId());
   }
 
+  public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation,
+    @Nullable ScannerOutputTap.Result scannerOutput) throws IOException, InterruptedException {
+    return addBuildInfoTo(build, listener, workspace, sonarInstallation, sonarInstallation.getCredentialsId(), false, scannerOutput);
+  }
+
   public static SonarAnalysisAction addBuildInfoTo(Run<?, ?> build, TaskListener listener, FilePath workspace, SonarInstallation sonarInstallation, @Nullable String credentialId)
     throws IOException, InterruptedException {
     return addBuildInfoTo(build, listener, workspace, sonarInstallation, credentialId, false);
@@ -272,7 +419,7 @@ public final class SonarUtils {
 
   public static String getTokenProperty(SonarInstallation inst, HttpClient client) {
     try {
-      if (!isSonarCloud(inst) && getVersion(inst, client).compareTo(new Version("10.0")) < 0) {
+      if (!isSonarCloud(inst) && getCachedVersion(inst, client).compareTo(new Version("10.0")) < 0) {
         return PROPERTY_SONAR_LOGIN;
       } else {
         return PROPERTY_SONAR_TOKEN;
@@ -292,6 +439,28 @@ public final class SonarUtils {
     return new Version(wsClient.getServerVersion());
   }
 
+  /**
+   * Same as {@link #getVersion(SonarInstallation, HttpClient)}, but the version is only requested once per installation and TTL.
+   * Concurrent callers wait for the same request. Failures are not cached.
+   */
+  public static Version getCachedVersion(SonarInstallation inst, HttpClient client) {
+    return SERVER_VERSIONS.get(inst, i -> getVersion(i, client));
+  }
+
+  /**
+   * Drops the cached versions of installations that are being replaced.
+   */
+  public static void invalidateServerVersions(SonarInstallation... installations) {
+    SERVER_VERSIONS.invalidateAll(Arrays.asList(installations));
+  }
+
+  /**
+   * @return hit/miss counters of the server version cache
+   */
+  public static CacheStats getServerVersionCacheStats() {
+    return SERVER_VERSIONS.stats();
+  }
+
   public static boolean isSonarCloud(SonarInstallation inst) {
     return inst.getServerUrl() != null
       && (inst.getServerUrl().startsWith(SONARCLOUD_URL) || inst.getServerUrl().startsWith(SONARCLOUD_US_URL));
@@ -0,0 +1,170 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.plugins.sonar.client.CeTaskPoller;
+import hudson.plugins.sonar.client.WsClient;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Checks the CE tasks of the steps that have been waiting for a webhook for too long, in case it was lost.
+ * A single periodic job serves all the waiting steps; each step is checked again with an exponential backoff and some
+ * jitter, so that steps paused at the same time don't all hit the server together.
+ */
+class QualityGateFallbackPoller {
+  private static final Logger LOGGER = Logger.getLogger(QualityGateFallbackPoller.class.getName());
+  private static final String PROPERTY_PREFIX = QualityGateFallbackPoller.class.getName();
+  private static final boolean ENABLED = SystemProperties.getBoolean(PROPERTY_PREFIX + ".enabled", true);
+  private static final QualityGateFallbackPoller INSTANCE = new QualityGateFallbackPoller(
+    Duration.ofSeconds(SystemProperties.getLong(PROPERTY_PREFIX + ".thresholdSeconds", 300L)),
+    Duration.ofSeconds(SystemProperties.getLong(PROPERTY_PREFIX + ".initialIntervalSeconds", 60L)),
+    Duration.ofSeconds(SystemProperties.getLong(PROPERTY_PREFIX + ".maxIntervalSeconds", 1800L)),
+    CeTaskPoller.get(), Clock.systemUTC());
+  private static final long TICK_SECONDS = 15;
+  private static final double JITTER = 0.2;
+
+  /**
+   * A step waiting for the result of a CE task.
+   */
+  interface Waiter {
+    String getTaskId();
+
+    WsClient createWsClient();
+
+    /**
+     * @return true if the step is over, false if it must keep waiting
+     */
+    boolean onTask(WsClient client, WsClient.CETask task);
+  }
+
+  private final Duration threshold;
+  private final Duration initialInterval;
+  private final Duration maxInterval;
+  private final CeTaskPoller poller;
+  private final Clock clock;
+  private final Map<Waiter, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  @VisibleForTesting
+  QualityGateFallbackPoller(Duration threshold, Duration initialInterval, Duration maxInterval, CeTaskPoller poller, Clock clock) {
+    this.threshold = threshold;
+    this.initialInterval = initialInterval;
+    this.maxInterval = maxInterval;
+    this.poller = poller;
+    this.clock = clock;
+  }
+
+  static QualityGateFallbackPoller get() {
+    return INSTANCE;
+  }
+
+  void register(Waiter waiter) {
+    if (!ENABLED) {
+      return;
+    }
+    entries.computeIfAbsent(waiter, w -> new Entry(w, clock.millis() + threshold.toMillis()));
+    if (started.compareAndSet(false, true)) {
+      Timer.get().scheduleWithFixedDelay(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  void unregister(Waiter waiter) {
+    entries.remove(waiter);
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  @VisibleForTesting
+  void tick() {
+    long now = clock.millis();
+    for (Entry entry : entries.values()) {
+      if (entry.nextCheck <= now && entry.inFlight.compareAndSet(false, true)) {
+        check(entry);
+      }
+    }
+  }
+
+  private void check(Entry entry) {
+    WsClient client;
+    try {
+      client = entry.waiter.createWsClient();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.FINE, "Unable to check task " + entry.waiter.getTaskId(), e);
+      reschedule(entry);
+      return;
+    }
+    poller.poll(client, entry.waiter.getTaskId(), new CeTaskPoller.Callback() {
+      @Override
+      public void onResult(WsClient.CETask task) {
+        if (entry.waiter.onTask(client, task)) {
+          entries.remove(entry.waiter);
+        } else {
+          reschedule(entry);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        LOGGER.log(Level.FINE, "Unable to check task " + entry.waiter.getTaskId(), e);
+        reschedule(entry);
+      }
+    });
+  }
+
+  private void reschedule(Entry entry) {
+    long interval = Math.min(maxInterval.toMillis(), initialInterval.toMillis() << Math.min(entry.attempts, 20));
+    long jitter = (long) (interval * JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1));
+    entry.attempts++;
+    entry.nextCheck = clock.millis() + interval + jitter;
+    entry.inFlight.set(false);
+  }
+
+  @VisibleForTesting
+  long nextCheck(Waiter waiter) {
+    Entry entry = entries.get(waiter);
+    return entry != null ? entry.nextCheck : -1;
+  }
+
+  private static final class Entry {
+    private final Waiter waiter;
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+    private volatile long nextCheck;
+    private volatile int attempts;
+
+    private Entry(Waiter waiter, long nextCheck) {
+      this.waiter = waiter;
+      this.nextCheck = nextCheck;
+    }
+  }
+}
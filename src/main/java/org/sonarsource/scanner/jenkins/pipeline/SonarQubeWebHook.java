@@ -22,22 +22,48 @@ package org.sonarsource.scanner.jenkins.pipeline;
 import com.google.common.annotations.VisibleForTesting;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.RootAction;
+import hudson.model.Saveable;
 import hudson.model.UnprotectedRootAction;
+import hudson.model.listeners.SaveableListener;
+import hudson.plugins.sonar.SonarGlobalConfiguration;
 import hudson.plugins.sonar.client.WsClient.CETask;
+import hudson.plugins.sonar.utils.JsonFieldExtractor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import jakarta.servlet.http.HttpServletResponse;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
@@ -46,11 +72,35 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 @Extension
 public class SonarQubeWebHook implements UnprotectedRootAction {
   private static final Logger LOGGER = Logger.getLogger(SonarQubeWebHook.class.getName());
-  private final Cache<String, WebhookEvent> eventCache = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.HOURS).build();
+  // overhead of an event in the cache, besides its payload
+  private static final int EVENT_WEIGHT = 256;
   public static final String URLNAME = "sonarqube-webhook";
+  // key of the listeners interested in every event; CE task ids never look like this
+  private static final String ANY_TASK = "*";
+  private static final String SIGNATURE_HEADER = "X-Sonar-Webhook-HMAC-SHA256";
+  private static final boolean JOURNAL_ENABLED = SystemProperties.getBoolean(SonarQubeWebHook.class.getName() + ".journalEnabled", true);
+  private static final Duration JOURNAL_SEGMENT_PERIOD = Duration.ofMinutes(10);
+  private static final long MAX_PAYLOAD_SIZE = SystemProperties.getLong(SonarQubeWebHook.class.getName() + ".maxPayloadSize", 1024L * 1024L);
+  private static final int DISPATCH_THREADS = SystemProperties.getInteger(SonarQubeWebHook.class.getName() + ".dispatchThreads", 2);
+  private static final int DISPATCH_QUEUE_SIZE = SystemProperties.getInteger(SonarQubeWebHook.class.getName() + ".dispatchQueueSize", 1000);
 
+  /**
+   * Runs the listeners, so that SonarQube gets its response without waiting for them.
+   */
+  private final ThreadPoolExecutor dispatcher = createDispatcher();
+  private final AtomicLong rejectedEvents = new AtomicLong();
+
+  /**
+   * Built with the settings of the global configuration, and rebuilt when they are saved.
+   */
+  private volatile Cache<String, WebhookEvent> eventCache;
+  private volatile WebhookEventJournal journal;
+
+  /**
+   * Listeners by CE task id, so that an event is only dispatched to the ones waiting for its task.
+   */
   @VisibleForTesting
-  List<Consumer<WebhookEvent>> listeners = new CopyOnWriteArrayList<>();
+  final Map<String, Set<Consumer<WebhookEvent>>> listeners = new ConcurrentHashMap<>();
 
   @Override
   public String getIconFileName() {
@@ -69,55 +119,272 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
 
   @RequirePOST
   public void doIndex(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
-    String payload = IOUtils.toString(req.getReader());
-
     LOGGER.info("Received POST from " + req.getRemoteHost());
+    if (req.getContentLengthLong() > MAX_PAYLOAD_SIZE) {
+      rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Payload too large");
+      return;
+    }
+
+    String signature = req.getHeader(SIGNATURE_HEADER);
+    // the raw payload is only needed to check its signature, once a step picks the event
+    PayloadInputStream in = new PayloadInputStream(req.getInputStream(), MAX_PAYLOAD_SIZE, signature != null);
     try {
-      JSONObject jsonObject = validate(payload);
-      LOGGER.fine(() -> "Full details of the POST was " + jsonObject.toString());
+      Map<String, String> fields = JsonFieldExtractor.extract(new InputStreamReader(in, StandardCharsets.UTF_8), Payload.FIELDS);
+      LOGGER.fine(() -> "Details of the POST were " + fields);
 
-      WebhookEvent event = new WebhookEvent(new Payload(payload, jsonObject), req.getHeader("X-Sonar-Webhook-HMAC-SHA256"));
+      WebhookEvent event = new WebhookEvent(new Payload(in.readRemaining(), fields), signature);
 
-      eventCache.put(event.payload.taskId, event);
+      getEventCache().put(event.payload.taskId, event);
+      appendToJournal(event);
 
-      for (Consumer<WebhookEvent> listener : listeners) {
-        listener.accept(event);
+      try {
+        dispatcher.execute(() -> {
+          notifyListeners(event.payload.taskId, event);
+          notifyListeners(ANY_TASK, event);
+        });
+      } catch (RejectedExecutionException e) {
+        rejectedEvents.incrementAndGet();
+        // the event stays cached, so a step that starts waiting for this task will still find it
+        LOGGER.warning(() -> "Too many webhook events waiting to be processed, rejecting the one of task " + event.payload.taskId);
+        rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many pending events");
+        return;
       }
+    } catch (PayloadTooLargeException e) {
+      LOGGER.warning(() -> "Payload received from " + req.getRemoteHost() + " is larger than " + MAX_PAYLOAD_SIZE + " bytes");
+      rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Payload too large");
+      return;
     } catch (JSONException e) {
-      LOGGER.log(Level.WARNING, e, () -> "Invalid payload " + payload);
+      LOGGER.log(Level.WARNING, e, () -> "Invalid payload received from " + req.getRemoteHost());
       rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON Payload");
     }
     rsp.setStatus(HttpServletResponse.SC_OK);
   }
 
-  private static JSONObject validate(String payload) {
-    return JSONObject.fromObject(payload);
+  private void appendToJournal(WebhookEvent event) {
+    WebhookEventJournal j = getJournal();
+    if (j != null) {
+      try {
+        j.append(event, Duration.ofMinutes(EventCacheSettings.current().ttlMinutes));
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, e, () -> "Unable to journal the webhook event of task " + event.payload.taskId);
+      }
+    }
+  }
+
+  @CheckForNull
+  private WebhookEventJournal getJournal() {
+    if (!JOURNAL_ENABLED) {
+      return null;
+    }
+    if (journal == null) {
+      synchronized (this) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (journal == null && jenkins != null) {
+          journal = new WebhookEventJournal(new File(jenkins.getRootDir(), "sonarqube-webhook-events"), JOURNAL_SEGMENT_PERIOD, Clock.systemUTC());
+        }
+      }
+    }
+    return journal;
+  }
+
+  /**
+   * Brings back the events received before the restart, before the waiting steps are resumed.
+   */
+  @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED, before = InitMilestone.JOB_LOADED)
+  public static void replayJournal() {
+    SonarQubeWebHook webhook = get();
+    WebhookEventJournal j = webhook.getJournal();
+    if (j != null) {
+      Cache<String, WebhookEvent> cache = webhook.getEventCache();
+      Duration maxAge = Duration.ofMinutes(EventCacheSettings.current().ttlMinutes);
+      j.replay(maxAge, event -> cache.put(event.payload.taskId, event));
+      j.compact(maxAge);
+      LOGGER.fine(() -> cache.estimatedSize() + " webhook events restored");
+    }
+  }
+
+  private void notifyListeners(String key, WebhookEvent event) {
+    Set<Consumer<WebhookEvent>> forKey = listeners.get(key);
+    if (forKey != null) {
+      for (Consumer<WebhookEvent> listener : forKey) {
+        try {
+          listener.accept(event);
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, e, () -> "Failed to process webhook event of task " + event.payload.taskId);
+        }
+      }
+    }
+  }
+
+  private Cache<String, WebhookEvent> getEventCache() {
+    Cache<String, WebhookEvent> cache = eventCache;
+    if (cache != null) {
+      return cache;
+    }
+    synchronized (this) {
+      if (eventCache == null) {
+        eventCache = newEventCache();
+      }
+      return eventCache;
+    }
+  }
+
+  /**
+   * Applies the current settings of the global configuration to the cache of events, keeping the events received so far.
+   * They still expire after the new time to live counted from their reception.
+   */
+  private synchronized void rebuildEventCache() {
+    Cache<String, WebhookEvent> newCache = newEventCache();
+    if (eventCache != null) {
+      newCache.putAll(eventCache.asMap());
+    }
+    eventCache = newCache;
+  }
+
+  private static Cache<String, WebhookEvent> newEventCache() {
+    EventCacheSettings settings = EventCacheSettings.current();
+    return buildEventCache(settings.ttlMinutes, settings.maxEntries, settings.maxBytes);
+  }
+
+  /**
+   * Bounds both the number of events and the size of their payloads: each event weighs at least its share of the
+   * maximum weight for the given number of entries, or its actual size if larger.
+   * Events expire once the time to live has elapsed since their reception, not since they were put in the cache.
+   */
+  @VisibleForTesting
+  static Cache<String, WebhookEvent> buildEventCache(long ttlMinutes, long maxEntries, long maxBytes) {
+    int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / maxEntries));
+    long ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+    return Caffeine.newBuilder()
+      .expireAfter(new Expiry<String, WebhookEvent>() {
+        @Override
+        public long expireAfterCreate(String taskId, WebhookEvent event, long currentTime) {
+          long age = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - event.getReceivedAt()));
+          return Math.max(0, ttlNanos - age);
+        }
+
+        @Override
+        public long expireAfterUpdate(String taskId, WebhookEvent event, long currentTime, long currentDuration) {
+          return expireAfterCreate(taskId, event, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String taskId, WebhookEvent event, long currentTime, long currentDuration) {
+          return currentDuration;
+        }
+      })
+      .maximumWeight(Math.max(maxBytes, maxEntries))
+      .weigher((String taskId, WebhookEvent event) -> Math.max(minWeight, event.weight()))
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * @return hit/miss/eviction counters of the received events
+   */
+  public CacheStats getEventCacheStats() {
+    return getEventCache().stats();
+  }
+
+  public long getEventCacheSize() {
+    return getEventCache().estimatedSize();
+  }
+
+  /**
+   * @return number of received events whose listeners have not been run yet
+   */
+  public int getPendingEvents() {
+    return dispatcher.getQueue().size() + dispatcher.getActiveCount();
+  }
+
+  /**
+   * @return number of events refused because too many were pending
+   */
+  public long getRejectedEvents() {
+    return rejectedEvents.get();
+  }
+
+  private static ThreadPoolExecutor createDispatcher() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(DISPATCH_THREADS, DISPATCH_THREADS, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(DISPATCH_QUEUE_SIZE),
+      new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube webhook dispatcher"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   public static SonarQubeWebHook get() {
     return Jenkins.get().getExtensionList(RootAction.class).get(SonarQubeWebHook.class);
   }
 
+  /**
+   * Registers a listener notified of every event, whatever its task.
+   */
   public void addListener(Consumer<WebhookEvent> l) {
-    listeners.add(l);
+    addListener(ANY_TASK, l);
   }
 
   public void removeListener(Consumer<WebhookEvent> l) {
-    listeners.remove(l);
+    removeListener(ANY_TASK, l);
+  }
+
+  /**
+   * Registers a listener only notified of the events of the given CE task.
+   */
+  public void addListener(String taskId, Consumer<WebhookEvent> l) {
+    listeners.compute(taskId, (k, set) -> {
+      Set<Consumer<WebhookEvent>> result = set != null ? set : ConcurrentHashMap.newKeySet();
+      result.add(l);
+      return result;
+    });
+  }
+
+  public void removeListener(String taskId, Consumer<WebhookEvent> l) {
+    // drop empty sets, so that the map does not grow with every task ever waited for
+    listeners.computeIfPresent(taskId, (k, set) -> {
+      set.remove(l);
+      return set.isEmpty() ? null : set;
+    });
   }
 
   @Nullable
   public WebhookEvent getWebhookEventForTaskId(String taskId) {
-    return eventCache.getIfPresent(taskId);
+    return getEventCache().getIfPresent(taskId);
+  }
+
+  private static final class EventCacheSettings {
+    private final long ttlMinutes;
+    private final long maxEntries;
+    private final long maxBytes;
+
+    private EventCacheSettings(long ttlMinutes, long maxEntries, long maxBytes) {
+      this.ttlMinutes = ttlMinutes;
+      this.maxEntries = maxEntries;
+      this.maxBytes = maxBytes;
+    }
+
+    static EventCacheSettings current() {
+      SonarGlobalConfiguration config = Jenkins.getInstanceOrNull() != null ? SonarGlobalConfiguration.get() : null;
+      if (config == null) {
+        return new EventCacheSettings(SonarGlobalConfiguration.DEFAULT_WEBHOOK_CACHE_TTL_MINUTES, SonarGlobalConfiguration.DEFAULT_WEBHOOK_CACHE_MAX_ENTRIES,
+          SonarGlobalConfiguration.DEFAULT_WEBHOOK_CACHE_MAX_SIZE_MB * 1024L * 1024L);
+      }
+      return new EventCacheSettings(config.getWebhookCacheTtlMinutes(), config.getWebhookCacheMaxEntries(), config.getWebhookCacheMaxSizeMb() * 1024L * 1024L);
+    }
   }
 
   static final class WebhookEvent {
     private final Payload payload;
     private final String receivedSignature;
+    private final long receivedAt;
 
     WebhookEvent(Payload payload, String receivedSignature) {
+      this(payload, receivedSignature, System.currentTimeMillis());
+    }
+
+    WebhookEvent(Payload payload, String receivedSignature, long receivedAt) {
       this.payload = payload;
       this.receivedSignature = receivedSignature;
+      this.receivedAt = receivedAt;
     }
 
     public Payload getPayload() {
@@ -127,29 +394,54 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
     public String getReceivedSignature() {
       return receivedSignature;
     }
+
+    /**
+     * @return when the event was received, in milliseconds since the epoch
+     */
+    long getReceivedAt() {
+      return receivedAt;
+    }
+
+    int weight() {
+      byte[] raw = payload.getRawPayload();
+      return EVENT_WEIGHT + (raw != null ? raw.length : 0);
+    }
   }
 
   static final class Payload {
+    static final List<String> FIELDS = List.of("taskId", "status", "project.name", "project.url", "qualityGate.status");
 
-    private final String payloadAsString;
+    private final byte[] rawPayload;
     private final String taskId;
     private final String componentName;
+    @Nullable
+    private final String dashboardUrl;
     private final String taskStatus;
     private final String qualityGateStatus;
-    private final String dashboardUrl;
 
-    Payload(String payloadAsString, JSONObject json) {
-      this.payloadAsString = payloadAsString;
-      this.taskId = json.getString("taskId");
-      this.taskStatus = json.getString("status");
-      JSONObject project = json.getJSONObject("project");
-      this.componentName = project.getString("name");
-      this.dashboardUrl = project.getString("url");
-      if (CETask.STATUS_SUCCESS.equals(getTaskStatus())) {
-        this.qualityGateStatus = json.has("qualityGate") ? json.getJSONObject("qualityGate").getString("status") : "NONE";
-      } else {
-        this.qualityGateStatus = null;
+    Payload(@Nullable byte[] rawPayload, Map<String, String> fields) {
+      this(rawPayload, required(fields, "taskId"), required(fields, "status"), required(fields, "project.name"), required(fields, "project.url"),
+        CETask.STATUS_SUCCESS.equals(fields.get("status")) ? fields.getOrDefault("qualityGate.status", "NONE") : null);
+    }
+
+    /**
+     * @param dashboardUrl null for the events journaled by the versions that did not keep it
+     */
+    Payload(@Nullable byte[] rawPayload, String taskId, String taskStatus, String componentName, @Nullable String dashboardUrl, @Nullable String qualityGateStatus) {
+      this.rawPayload = rawPayload;
+      this.taskId = taskId;
+      this.taskStatus = taskStatus;
+      this.componentName = componentName;
+      this.dashboardUrl = dashboardUrl;
+      this.qualityGateStatus = qualityGateStatus;
+    }
+
+    private static String required(Map<String, String> fields, String path) {
+      String value = fields.get(path);
+      if (value == null) {
+        throw new JSONException("Missing " + path);
       }
+      return value;
     }
 
     String getTaskId() {
@@ -168,14 +460,97 @@ public class SonarQubeWebHook implements UnprotectedRootAction {
       return componentName;
     }
 
+    @CheckForNull
     String getDashboardUrl() {
       return dashboardUrl;
     }
 
-    String getPayloadAsString() {
-      return payloadAsString;
+    /**
+     * @return the payload as received, only kept when it was signed
+     */
+    @CheckForNull
+    byte[] getRawPayload() {
+      return rawPayload;
     }
 
   }
 
+  private static class PayloadTooLargeException extends IOException {
+    PayloadTooLargeException() {
+      super("Payload too large");
+    }
+  }
+
+  /**
+   * Fails once more than the maximum size has been read, and optionally keeps a copy of what was read.
+   */
+  private static class PayloadInputStream extends FilterInputStream {
+    private final long maxSize;
+    @Nullable
+    private final ByteArrayOutputStream copy;
+    private long count;
+
+    PayloadInputStream(InputStream in, long maxSize, boolean keepCopy) {
+      super(in);
+      this.maxSize = maxSize;
+      this.copy = keepCopy ? new ByteArrayOutputStream() : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+        if (copy != null) {
+          copy.write(b);
+        }
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count(n);
+        if (copy != null) {
+          copy.write(b, off, n);
+        }
+      }
+      return n;
+    }
+
+    private void count(int n) throws PayloadTooLargeException {
+      count += n;
+      if (count > maxSize) {
+        throw new PayloadTooLargeException();
+      }
+    }
+
+    /**
+     * @return the whole payload if a copy is kept, after reading what the parser left
+     */
+    @CheckForNull
+    byte[] readRemaining() throws IOException {
+      if (copy == null) {
+        return null;
+      }
+      IOUtils.consume(this);
+      return copy.toByteArray();
+    }
+  }
+
+  /**
+   * The global configuration is saved once its whole form is applied.
+   */
+  @Extension
+  public static final class ConfigurationChangeListener extends SaveableListener {
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      if (o instanceof SonarGlobalConfiguration) {
+        SonarQubeWebHook.get().rebuildEventCache();
+      }
+    }
+  }
+
 }
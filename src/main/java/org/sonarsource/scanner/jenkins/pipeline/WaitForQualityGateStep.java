@@ -23,6 +23,7 @@ import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.AbortException;
@@ -38,14 +39,17 @@ import hudson.model.TopLevelItem;
 import hudson.model.queue.Tasks;
 import hudson.plugins.sonar.SonarInstallation;
 import hudson.plugins.sonar.action.SonarAnalysisAction;
+import hudson.plugins.sonar.client.CeTaskPoller;
 import hudson.plugins.sonar.client.HttpClient;
 import hudson.plugins.sonar.client.OkHttpClientSingleton;
 import hudson.plugins.sonar.client.ProjectInformation;
 import hudson.plugins.sonar.client.WsClient;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -56,13 +60,18 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import jenkins.model.Jenkins;
-import org.apache.commons.codec.digest.HmacAlgorithms;
-import org.apache.commons.codec.digest.HmacUtils;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
@@ -79,6 +88,12 @@ import org.kohsuke.stapler.QueryParameter;
 public class WaitForQualityGateStep extends Step implements Serializable {
 
   private static final Logger LOGGER = Logger.getLogger(WaitForQualityGateStep.class.getName());
+  private static final int CHECK_THREADS = SystemProperties.getInteger(WaitForQualityGateStep.class.getName() + ".checkThreads", 4);
+  private static final int CHECK_QUEUE_SIZE = SystemProperties.getInteger(WaitForQualityGateStep.class.getName() + ".checkQueueSize", 1000);
+  /**
+   * Runs the initial check of the steps, so that a slow server doesn't hold the CPS VM thread.
+   */
+  private static final ThreadPoolExecutor CHECK_EXECUTOR = createCheckExecutor();
 
   public static class QGStatus implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -160,7 +175,23 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     return new Execution(this, context);
   }
 
-  private static class Execution extends StepExecution implements Consumer<SonarQubeWebHook.WebhookEvent> {
+  private static ThreadPoolExecutor createCheckExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(CHECK_THREADS, CHECK_THREADS, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(CHECK_QUEUE_SIZE),
+      new NamingThreadFactory(new DaemonThreadFactory(), "SonarQube quality gate check"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * @return number of checks running or waiting for a thread
+   */
+  @VisibleForTesting
+  static int pendingChecks() {
+    return CHECK_EXECUTOR.getActiveCount() + CHECK_EXECUTOR.getQueue().size();
+  }
+
+  private static class Execution extends StepExecution implements Consumer<SonarQubeWebHook.WebhookEvent>, QualityGateFallbackPoller.Waiter {
 
     private static final String PLEASE_USE_THE_WITH_SONAR_QUBE_ENV_WRAPPER_TO_RUN_YOUR_ANALYSIS = "Please use the 'withSonarQubeEnv' wrapper to run your analysis.";
 
@@ -168,6 +199,14 @@ public class WaitForQualityGateStep extends Step implements Serializable {
 
     private WaitForQualityGateStep step;
     String dashboardUrl;
+    /**
+     * The CE task once it succeeded, so that only the quality gate is requested if the step is resumed.
+     */
+    private WsClient.CETask completedTask;
+    /**
+     * Set by the first of the webhook, the checks and the pollers to complete the step, the others being ignored.
+     */
+    private transient volatile AtomicBoolean completed = new AtomicBoolean();
 
     public Execution(WaitForQualityGateStep step, StepContext context) {
       super(context);
@@ -178,19 +217,17 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     public boolean start() {
       processStepParameters();
 
-      if (!checkTaskCompleted()) {
-        // Check if we received a webhook event after initially checking with the installation.
-        SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
-        if (webhookEvent != null) {
-          validateWebhookAndCheckQualityGateIfValid(webhookEvent, true);
-          return true;
-        } else {
-          getContextClass(FlowNode.class).addAction(new PauseAction("SonarQube analysis"));
-          return false;
-        }
-      } else {
-        return true;
+      SonarQubeWebHook.get().addListener(step.taskId, this);
+      getContextClass(FlowNode.class).addAction(new PauseAction("SonarQube analysis"));
+      log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
+      try {
+        CHECK_EXECUTOR.execute(this::checkTaskCompleted);
+      } catch (RejectedExecutionException e) {
+        // the webhook or the fallback poller will complete the step
+        LOGGER.log(Level.WARNING, "Too many pending quality gate checks, task {0} will be checked later", step.taskId);
+        QualityGateFallbackPoller.get().register(this);
       }
+      return false;
     }
 
     private void processStepParameters() {
@@ -236,15 +273,55 @@ public class WaitForQualityGateStep extends Step implements Serializable {
       getContextClass(TaskListener.class).getLogger().println();
     }
 
-    private boolean checkTaskCompleted() {
-      SonarQubeWebHook.get().addListener(this);
+    private void checkTaskCompleted() {
+      try {
+        WsClient wsClient = createWsClient();
+        if (checkCETask(wsClient, wsClient.getCETask(step.getTaskId()))) {
+          return;
+        }
+      } catch (Exception e) {
+        fail(e);
+        return;
+      }
+      // Check if we received a webhook event after initially checking with the installation.
+      SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
+      if (webhookEvent != null) {
+        accept(webhookEvent);
+      } else {
+        // in case the webhook never comes
+        QualityGateFallbackPoller.get().register(this);
+        if (completed().get()) {
+          // the webhook came meanwhile
+          QualityGateFallbackPoller.get().unregister(this);
+        }
+      }
+    }
 
-      log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
+    @Override
+    public String getTaskId() {
+      return step.taskId;
+    }
+
+    @Override
+    public WsClient createWsClient() {
       SonarInstallation inst = getInstallation();
-      WsClient wsClient = new WsClient(new HttpClient(OkHttpClientSingleton.getInstance()),
+      return new WsClient(new HttpClient(OkHttpClientSingleton.getInstance(inst)),
         step.getServerUrl(), SonarUtils.getAuthenticationToken(getContextClass(Run.class), inst, step.credentialsId));
-      WsClient.CETask ceTask = wsClient.getCETask(step.getTaskId());
+    }
 
+    private boolean checkCETask(WsClient wsClient, WsClient.CETask ceTask) {
+      if (completed().get()) {
+        return true;
+      }
+      if (WsClient.CETask.STATUS_SUCCESS.equalsIgnoreCase(ceTask.getStatus())) {
+        completedTask = ceTask;
+        // the webhook may have come meanwhile, and its payload already has the quality gate status
+        SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
+        if (webhookEvent != null) {
+          validateWebhookAndCheckQualityGateIfValid(webhookEvent);
+          return true;
+        }
+      }
       ProjectInformation projectInformation = new ProjectInformation();
       projectInformation.setUrl(dashboardUrl);
 
@@ -256,7 +333,11 @@ public class WaitForQualityGateStep extends Step implements Serializable {
     }
 
     private void handleQGStatus(ProjectInformation projectInformation) {
-      getContextClass(Run.class).addAction(projectInformation);
+      Run<?, ?> run = getContextClass(Run.class);
+      if (!complete()) {
+        return;
+      }
+      run.addAction(projectInformation);
 
       String status = projectInformation.getStatus();
       if (step.isAbortPipeline() && !"OK".equals(status)) {
@@ -266,38 +347,144 @@ public class WaitForQualityGateStep extends Step implements Serializable {
       }
     }
 
+    /**
+     * @return true if the caller is the one completing the step, and must call the context
+     */
+    private boolean complete() {
+      if (!completed().compareAndSet(false, true)) {
+        return false;
+      }
+      stopWaiting();
+      try {
+        FlowNode node = getContext().get(FlowNode.class);
+        if (node != null) {
+          PauseAction.endCurrentPause(node);
+        }
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Unable to end the pause of the step", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    }
+
+    private AtomicBoolean completed() {
+      AtomicBoolean c = completed;
+      if (c == null) {
+        // not resumed yet
+        synchronized (this) {
+          if (completed == null) {
+            completed = new AtomicBoolean();
+          }
+          c = completed;
+        }
+      }
+      return c;
+    }
+
+    private void fail(Throwable cause) {
+      if (complete()) {
+        getContext().onFailure(cause);
+      }
+    }
+
     @Override
     public void onResume() {
-      SonarQubeWebHook.get().addListener(this);
+      completed = new AtomicBoolean();
+      SonarQubeWebHook.get().addListener(step.taskId, this);
+      // the event may have been received before the restart, or replayed from the journal
+      SonarQubeWebHook.WebhookEvent webhookEvent = SonarQubeWebHook.get().getWebhookEventForTaskId(step.taskId);
+      if (webhookEvent != null) {
+        accept(webhookEvent);
+        return;
+      }
+      WsClient wsClient;
       try {
-        checkTaskCompleted();
+        log("Checking status of SonarQube task '%s' on server '%s'", step.taskId, step.getInstallationName());
+        wsClient = createWsClient();
       } catch (Exception e) {
         throw new IllegalStateException("Unable to restore step", e);
       }
+      if (completedTask != null && submitCheck(wsClient, completedTask)) {
+        return;
+      }
+      QualityGateFallbackPoller.get().register(this);
+      // many steps may be resumed at once: let the poller group their requests
+      CeTaskPoller.get().poll(wsClient, step.taskId, new CeTaskPoller.Callback() {
+        @Override
+        public void onResult(WsClient.CETask task) {
+          // checking the quality gate calls the server again: don't hold the poller threads
+          if (!submitCheck(wsClient, task)) {
+            LOGGER.log(Level.WARNING, "Too many pending quality gate checks, task {0} will be checked later", step.taskId);
+          }
+        }
+
+        @Override
+        public void onError(Exception e) {
+          fail(new IllegalStateException("Unable to restore step", e));
+        }
+      });
+    }
+
+    /**
+     * @return false if too many checks are pending, in which case the fallback poller has to complete the step
+     */
+    private boolean submitCheck(WsClient wsClient, WsClient.CETask task) {
+      try {
+        CHECK_EXECUTOR.execute(() -> {
+          try {
+            checkCETask(wsClient, task);
+          } catch (Exception e) {
+            fail(new IllegalStateException("Unable to restore step", e));
+          }
+        });
+        return true;
+      } catch (RejectedExecutionException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Called by the fallback poller when the webhook didn't come in time.
+     */
+    @Override
+    public boolean onTask(WsClient wsClient, WsClient.CETask task) {
+      try {
+        return checkCETask(wsClient, task);
+      } catch (RuntimeException e) {
+        fail(e);
+        return true;
+      }
     }
 
     @Override
     public void stop(Throwable cause) throws Exception {
-      PauseAction.endCurrentPause(getContextClass(FlowNode.class));
-      SonarQubeWebHook.get().removeListener(this);
-      getContext().onFailure(cause);
+      fail(cause);
+    }
+
+    private void stopWaiting() {
+      if (step.taskId != null) {
+        SonarQubeWebHook.get().removeListener(step.taskId, this);
+        QualityGateFallbackPoller.get().unregister(this);
+      }
     }
 
     @Override
     public void accept(SonarQubeWebHook.WebhookEvent event) {
       if (event.getPayload().getTaskId().equals(step.taskId)) {
         try {
-          PauseAction.endCurrentPause(getContextClass(FlowNode.class));
-          validateWebhookAndCheckQualityGateIfValid(event, false);
-        } catch (IOException e) {
-          getContext().onFailure(e);
-          throw new IllegalStateException(e);
+          validateWebhookAndCheckQualityGateIfValid(event);
+        } catch (RuntimeException e) {
+          fail(e);
+          throw e;
         }
       }
     }
 
-    private void validateWebhookAndCheckQualityGateIfValid(SonarQubeWebHook.WebhookEvent event, boolean onStart) {
-      SonarQubeWebHook.get().removeListener(this);
+    private void validateWebhookAndCheckQualityGateIfValid(SonarQubeWebHook.WebhookEvent event) {
+      if (completed().get()) {
+        return;
+      }
       if (validateWebhook(event)) {
         ProjectInformation projectInformation = new ProjectInformation();
         SonarQubeWebHook.Payload payload = event.getPayload();
@@ -306,7 +493,7 @@ public class WaitForQualityGateStep extends Step implements Serializable {
         projectInformation.setName(payload.getComponentName());
 
         // only execute the checkQualityGate if the webhook is found to be valid (getContext().onFailure() does not interrupt execution)
-        checkQualityGate(projectInformation, payload::getQualityGateStatus, onStart);
+        checkQualityGate(projectInformation, payload::getQualityGateStatus, false);
       }
     }
 
@@ -328,7 +515,7 @@ public class WaitForQualityGateStep extends Step implements Serializable {
           if (onStart) {
             throw exception;
           } else {
-            getContext().onFailure(exception);
+            fail(exception);
             return true;
           }
         default:
@@ -342,32 +529,27 @@ public class WaitForQualityGateStep extends Step implements Serializable {
 
     private boolean validateWebhook(SonarQubeWebHook.WebhookEvent event) {
       if (step.webhookSecretId != null && !step.webhookSecretId.isEmpty()) {
-        StringCredentials webhookSecret = CredentialsProvider.findCredentialById(step.webhookSecretId, StringCredentials.class, getContextClass(Run.class));
-        CredentialsProvider.track(getContextClass(Run.class), webhookSecret);
+        Run<?, ?> run = getContextClass(Run.class);
+        WebhookSecretCache.WebhookSecret webhookSecret = WebhookSecretCache.get().get(step.webhookSecretId, run);
+        CredentialsProvider.track(run, webhookSecret != null ? webhookSecret.getCredentials() : null);
         if (webhookSecret != null) {
-          boolean isValidPayload = isValidSignature(event.getReceivedSignature(), event.getPayload().getPayloadAsString(), webhookSecret.getSecret().getPlainText());
+          boolean isValidPayload = webhookSecret.isValidSignature(event.getReceivedSignature(), event.getPayload().getRawPayload());
           if (!isValidPayload) {
             log("The incoming webhook didn't match the configured webhook secret");
-            getContext().onFailure(new AbortException("Pipeline aborted due to failed webhook verification "));
+            fail(new AbortException("Pipeline aborted due to failed webhook verification "));
           } else {
             log("The incoming webhook matched the configured webhook secret");
           }
           return isValidPayload;
         } else {
           log("A webhook secret id was configured, but the corresponding credential could not be found");
-          getContext().onFailure(new AbortException("Pipeline aborted due to failed webhook verification"));
+          fail(new AbortException("Pipeline aborted due to failed webhook verification"));
           return false;
         }
       }
       return true;
     }
 
-    private static boolean isValidSignature(String signature, String payload, String secret) {
-      // See Apache commons-codec
-      String expectedSignature = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, secret).hmacHex(payload);
-      return Objects.equals(expectedSignature, signature);
-    }
-
     private SonarInstallation getInstallation() {
       return Optional.ofNullable(SonarInstallation.get(step.getInstallationName()))
         .orElseThrow(() -> new IllegalStateException("Invalid installation name: " + step.getInstallationName()));
@@ -378,11 +560,11 @@ public class WaitForQualityGateStep extends Step implements Serializable {
         return Optional.ofNullable(getContext().get(contextClass))
           .orElseThrow(() -> new IllegalStateException(String.format("Could not get %s from the Jenkins context", contextClass.getName())));
       } catch (IOException | IllegalStateException e) {
-        getContext().onFailure(e);
+        fail(e);
         throw new IllegalStateException(e);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
-        getContext().onFailure(e);
+        fail(e);
         throw new IllegalStateException(e);
       }
     }
@@ -0,0 +1,213 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the received webhook events, so that the events received shortly before or during a restart
+ * are still known by the steps resumed afterwards.
+ * Events are appended to segment files, each covering a fixed period. Segments are deleted once all their events are too old.
+ */
+class WebhookEventJournal {
+  private static final Logger LOGGER = Logger.getLogger(WebhookEventJournal.class.getName());
+  private static final String PREFIX = "events-";
+  private static final String SUFFIX = ".log";
+  private static final int MAGIC = 0x53515745;
+  private static final byte VERSION = 2;
+  // without the dashboard URL
+  private static final byte VERSION_1 = 1;
+
+  private final File dir;
+  private final Duration segmentPeriod;
+  private final Clock clock;
+
+  private DataOutputStream out;
+  private long segmentStart;
+
+  WebhookEventJournal(File dir, Duration segmentPeriod, Clock clock) {
+    this.dir = dir;
+    this.segmentPeriod = segmentPeriod;
+    this.clock = clock;
+  }
+
+  synchronized void append(SonarQubeWebHook.WebhookEvent event, Duration maxAge) throws IOException {
+    long now = clock.millis();
+    if (out == null || now - segmentStart >= segmentPeriod.toMillis()) {
+      roll(now, maxAge);
+    }
+    SonarQubeWebHook.Payload payload = event.getPayload();
+    out.writeLong(now);
+    out.writeUTF(payload.getTaskId());
+    out.writeUTF(payload.getTaskStatus());
+    out.writeUTF(payload.getComponentName());
+    writeNullable(payload.getDashboardUrl());
+    writeNullable(payload.getQualityGateStatus());
+    writeNullable(event.getReceivedSignature());
+    byte[] raw = payload.getRawPayload();
+    if (raw == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(raw.length);
+      out.write(raw);
+    }
+    out.flush();
+  }
+
+  private void roll(long now, Duration maxAge) throws IOException {
+    close();
+    Files.createDirectories(dir.toPath());
+    segmentStart = now;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, PREFIX + now + SUFFIX))));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    compact(maxAge);
+  }
+
+  private void writeNullable(@Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * Deletes the segments whose events are all older than the given age.
+   */
+  synchronized void compact(Duration maxAge) {
+    long limit = clock.millis() - maxAge.toMillis();
+    for (File segment : segments()) {
+      // a segment only holds events received during the period following its creation
+      if (segmentStart(segment) + segmentPeriod.toMillis() < limit && !segment.delete()) {
+        LOGGER.fine(() -> "Unable to delete " + segment);
+      }
+    }
+  }
+
+  /**
+   * Reads the events of the given age at most, oldest first.
+   */
+  synchronized void replay(Duration maxAge, Consumer<SonarQubeWebHook.WebhookEvent> consumer) {
+    long limit = clock.millis() - maxAge.toMillis();
+    for (File segment : segments()) {
+      if (segmentStart(segment) + segmentPeriod.toMillis() < limit) {
+        continue;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+        int magic = in.readInt();
+        byte version = in.readByte();
+        if (magic != MAGIC || (version != VERSION && version != VERSION_1)) {
+          LOGGER.warning(() -> "Ignoring " + segment + ", which is not a journal of webhook events");
+          continue;
+        }
+        SonarQubeWebHook.WebhookEvent event;
+        while ((event = readEvent(in, version, limit)) != null) {
+          consumer.accept(event);
+        }
+      } catch (EOFException e) {
+        // the last event of the segment was not completely written
+        LOGGER.fine(() -> "Truncated journal segment " + segment);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, e, () -> "Unable to read " + segment);
+      }
+    }
+  }
+
+  /**
+   * @return the next event not older than the limit, or null at the end of the segment
+   */
+  @CheckForNull
+  private static SonarQubeWebHook.WebhookEvent readEvent(DataInputStream in, byte version, long limit) throws IOException {
+    while (true) {
+      long receivedAt;
+      try {
+        receivedAt = in.readLong();
+      } catch (EOFException e) {
+        return null;
+      }
+      String taskId = in.readUTF();
+      String taskStatus = in.readUTF();
+      String componentName = in.readUTF();
+      String dashboardUrl = version != VERSION_1 ? readNullable(in) : null;
+      String qualityGateStatus = readNullable(in);
+      String signature = readNullable(in);
+      int length = in.readInt();
+      byte[] raw = null;
+      if (length >= 0) {
+        raw = new byte[length];
+        in.readFully(raw);
+      }
+      if (receivedAt >= limit) {
+        return new SonarQubeWebHook.WebhookEvent(new SonarQubeWebHook.Payload(raw, taskId, taskStatus, componentName, dashboardUrl, qualityGateStatus), signature, receivedAt);
+      }
+    }
+  }
+
+  @CheckForNull
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private File[] segments() {
+    File[] segments = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX) && segmentStart(name) >= 0);
+    if (segments == null) {
+      return new File[0];
+    }
+    Arrays.sort(segments, Comparator.comparingLong(WebhookEventJournal::segmentStart));
+    return segments;
+  }
+
+  private static long segmentStart(File segment) {
+    return segmentStart(segment.getName());
+  }
+
+  private static long segmentStart(String name) {
+    try {
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+}
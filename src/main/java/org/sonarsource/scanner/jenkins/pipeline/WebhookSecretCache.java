@@ -0,0 +1,215 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Objects;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jenkins.util.SystemProperties;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+/**
+ * Webhook secrets resolved from the credentials, with their HMAC key ready to use, so that they are not looked up
+ * and initialized again for every event. Entries are dropped when credentials may have changed, and after a while
+ * for the credentials providers that don't notify their changes.
+ */
+public final class WebhookSecretCache {
+  private static final String HMAC_SHA_256 = "HmacSHA256";
+  private static final long TTL_SECONDS = SystemProperties.getLong(WebhookSecretCache.class.getName() + ".ttlSeconds", 300L);
+  private static final WebhookSecretCache INSTANCE = new WebhookSecretCache(Duration.ofSeconds(TTL_SECONDS));
+
+  private final Cache<Key, WebhookSecret> cache;
+
+  @VisibleForTesting
+  WebhookSecretCache(Duration ttl) {
+    this.cache = Caffeine.newBuilder()
+      .maximumSize(1000)
+      .expireAfterWrite(ttl)
+      .build();
+  }
+
+  static WebhookSecretCache get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Only the credentials resolved in the scope of the job are cached: a reference to a credentials parameter, like
+   * {@code ${SECRET}}, is resolved for each run, possibly with the credentials of the user who started it.
+   *
+   * @return null if there is no such string credentials in the context of the run
+   */
+  @CheckForNull
+  WebhookSecret get(String secretId, Run<?, ?> run) {
+    if (isParameterReference(secretId)) {
+      return load(secretId, run);
+    }
+    return cache.get(new Key(run.getParent().getFullName(), secretId), k -> load(secretId, run));
+  }
+
+  private static boolean isParameterReference(String secretId) {
+    String id = secretId.trim();
+    return id.startsWith("${") && id.endsWith("}");
+  }
+
+  @CheckForNull
+  private static WebhookSecret load(String secretId, Run<?, ?> run) {
+    StringCredentials credentials = CredentialsProvider.findCredentialById(secretId, StringCredentials.class, run);
+    return credentials != null ? new WebhookSecret(credentials) : null;
+  }
+
+  void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting
+  long size() {
+    cache.cleanUp();
+    return cache.estimatedSize();
+  }
+
+  static final class WebhookSecret {
+    private final StringCredentials credentials;
+    private final SecretKeySpec key;
+    @Nullable
+    private final Mac prototype;
+
+    WebhookSecret(StringCredentials credentials) {
+      this.credentials = credentials;
+      this.key = new SecretKeySpec(credentials.getSecret().getPlainText().getBytes(StandardCharsets.UTF_8), HMAC_SHA_256);
+      this.prototype = newMac(key);
+    }
+
+    StringCredentials getCredentials() {
+      return credentials;
+    }
+
+    /**
+     * Compares the signatures in constant time, on their decoded bytes.
+     */
+    boolean isValidSignature(@Nullable String signature, @Nullable byte[] payload) {
+      if (signature == null || payload == null) {
+        // the payload is only kept when it was signed
+        return false;
+      }
+      byte[] received;
+      try {
+        received = Hex.decodeHex(signature);
+      } catch (DecoderException e) {
+        return false;
+      }
+      return MessageDigest.isEqual(mac().doFinal(payload), received);
+    }
+
+    private Mac mac() {
+      if (prototype != null) {
+        try {
+          return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+          // depends on the provider, initialize a new one
+        }
+      }
+      return newMac(key);
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+      try {
+        Mac mac = Mac.getInstance(HMAC_SHA_256);
+        mac.init(key);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Unable to initialize " + HMAC_SHA_256, e);
+      }
+    }
+  }
+
+  /**
+   * Credentials are resolved in the context of a job, they may come from its folders.
+   */
+  private static final class Key {
+    private final String jobName;
+    private final String secretId;
+
+    private Key(String jobName, String secretId) {
+      this.jobName = jobName;
+      this.secretId = secretId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return jobName.equals(key.jobName) && secretId.equals(key.secretId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(jobName, secretId);
+    }
+  }
+
+  /**
+   * Global credentials are saved with {@link SystemCredentialsProvider}, folder credentials with their folder. The other
+   * items are saved all the time, without changing any credentials.
+   */
+  @Extension
+  public static final class CredentialsChangeListener extends SaveableListener {
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      if (o instanceof SystemCredentialsProvider || (o instanceof ItemGroup && o instanceof Item && holdsCredentials((Item) o))) {
+        INSTANCE.invalidateAll();
+      }
+    }
+
+    private static boolean holdsCredentials(Item item) {
+      for (CredentialsStore store : CredentialsProvider.lookupStores(item)) {
+        if (store.getContext() == item) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
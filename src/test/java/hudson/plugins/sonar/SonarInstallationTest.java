@@ -24,6 +24,7 @@ import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import hudson.Util;
+import hudson.diagnosis.OldDataMonitor;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.sonar.model.TriggersConfig;
@@ -39,6 +40,7 @@ import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.spy;
 
@@ -133,6 +135,36 @@ public class SonarInstallationTest extends SonarTestCase {
     assertAnalysisPropsUnix(null);
   }
 
+  @Test
+  public void testAnalysisPropertiesMap() {
+    SonarInstallation inst = new SonarInstallation(null, null, null, null, null, null, null, "key=value novalue key2=${VAR} a=b=c", null);
+    assertThat(inst.getAdditionalAnalysisPropertiesMap()).containsExactly(entry("key", "value"), entry("key2", "${VAR}"));
+    assertThat(new SonarInstallation(null, null, null, null, null, null, null, null, null).getAdditionalAnalysisPropertiesMap()).isEmpty();
+  }
+
+  @Test
+  public void analysisPropertiesCannotBeChangedByCallers() {
+    SonarInstallation inst = new SonarInstallation(null, null, null, null, null, null, null, "key=value", null);
+    inst.getAdditionalAnalysisPropertiesUnix()[0] = "-Dother=value";
+    inst.getAdditionalAnalysisPropertiesWindows()[0] = "/d:other=value";
+
+    assertThat(inst.getAdditionalAnalysisPropertiesUnix()).containsExactly("-Dkey=value");
+    assertThat(inst.getAdditionalAnalysisPropertiesWindows()).containsExactly("/d:key=value");
+  }
+
+  @Test
+  public void argumentsSavedByOlderVersionsAreDropped() {
+    SonarInstallation inst = (SonarInstallation) Jenkins.XSTREAM2.fromXML("<hudson.plugins.sonar.SonarInstallation>" +
+      "<name>Name</name>" +
+      "<additionalAnalysisProperties>key=value</additionalAnalysisProperties>" +
+      "<split><string>-Dkey=value</string></split>" +
+      "</hudson.plugins.sonar.SonarInstallation>");
+
+    assertThat(inst.getAdditionalAnalysisPropertiesUnix()).containsExactly("-Dkey=value");
+    assertThat(Jenkins.XSTREAM2.toXML(inst)).doesNotContain("split");
+    assertThat(OldDataMonitor.get(j.jenkins).getData()).isEmpty();
+  }
+
   private void assertAnalysisPropsWindows(String input, String... expectedEntries) {
     SonarInstallation inst = new SonarInstallation(null, null, null, null, null, null, null, input, null);
     assertThat(inst.getAdditionalAnalysisPropertiesWindows()).isEqualTo(expectedEntries);
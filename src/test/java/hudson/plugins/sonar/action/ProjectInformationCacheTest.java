@@ -0,0 +1,194 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.action;
+
+import hudson.model.Run;
+import hudson.plugins.sonar.client.ProjectInformation;
+import hudson.plugins.sonar.client.SQProjectResolver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProjectInformationCacheTest {
+  private SQProjectResolver resolver;
+  private Run<?, ?> run;
+  private List<Runnable> scheduled;
+  private Executor executor;
+
+  @Before
+  public void setUp() {
+    resolver = mock(SQProjectResolver.class);
+    run = mock(Run.class);
+    scheduled = new ArrayList<>();
+    executor = scheduled::add;
+  }
+
+  @Test
+  public void testResolvedInBackground() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ofHours(1));
+    ProjectInformation proj = createProj("success");
+    SonarAnalysisAction analysis = createAnalysis("taskId");
+    when(resolver.resolve("serverUrl", "projUrl", "taskId", "inst", run)).thenReturn(proj);
+
+    List<ProjectInformation> projs = cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    assertThat(projs).hasSize(1);
+    assertThat(projs.get(0).isResolving()).isTrue();
+    assertThat(projs.get(0).getUrl()).isEqualTo("projUrl");
+    verify(resolver, times(0)).resolve("serverUrl", "projUrl", "taskId", "inst", run);
+
+    // the same task is only fetched once at a time
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    assertThat(scheduled).hasSize(1);
+
+    scheduled.get(0).run();
+    verify(resolver, times(1)).resolve("serverUrl", "projUrl", "taskId", "inst", run);
+
+    assertThat(cache.getNow(resolver, Collections.singletonList(analysis), run, executor)).containsExactly(proj);
+    assertThat(cache.getIfPresent("taskId")).isEqualTo(proj);
+    assertThat(scheduled).hasSize(1);
+    assertThat(cache.getStats().hitCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testUnresolvedTaskIsLeftOut() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ofHours(1));
+    SonarAnalysisAction analysis = createAnalysis("taskId");
+
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    scheduled.get(0).run();
+
+    assertThat(cache.getNow(resolver, Collections.singletonList(analysis), run, executor)).isEmpty();
+    assertThat(cache.getIfPresent("taskId")).isNull();
+    assertThat(scheduled).hasSize(1);
+  }
+
+  @Test
+  public void testPendingTaskExpiresSooner() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ZERO);
+    SonarAnalysisAction pending = createAnalysis("pendingTask");
+    SonarAnalysisAction done = createAnalysis("doneTask");
+    when(resolver.resolve("serverUrl", "projUrl", "pendingTask", "inst", run)).thenReturn(createProj("pending"));
+    when(resolver.resolve("serverUrl", "projUrl", "doneTask", "inst", run)).thenReturn(createProj("failed"));
+
+    cache.getNow(resolver, List.of(pending, done), run, executor);
+    scheduled.forEach(Runnable::run);
+    scheduled.clear();
+
+    cache.getNow(resolver, List.of(pending, done), run, executor);
+    assertThat(scheduled).hasSize(1);
+    scheduled.get(0).run();
+    verify(resolver, times(2)).resolve("serverUrl", "projUrl", "pendingTask", "inst", run);
+    verify(resolver, times(1)).resolve("serverUrl", "projUrl", "doneTask", "inst", run);
+  }
+
+  @Test
+  public void testLastKnownInformationIsServedWhileRefreshing() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ZERO);
+    SonarAnalysisAction analysis = createAnalysis("taskId");
+    ProjectInformation pending = createProj("pending");
+    when(resolver.resolve("serverUrl", "projUrl", "taskId", "inst", run)).thenReturn(pending, (ProjectInformation) null);
+
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    scheduled.get(0).run();
+    scheduled.clear();
+
+    assertThat(cache.getNow(resolver, Collections.singletonList(analysis), run, executor)).containsExactly(pending);
+    assertThat(scheduled).hasSize(1);
+    // a failed refresh keeps the last known information
+    scheduled.get(0).run();
+    assertThat(cache.getNow(resolver, Collections.singletonList(analysis), run, executor)).containsExactly(pending);
+  }
+
+  @Test
+  public void testTaskWithoutStatusIsNotRefreshed() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ZERO);
+    SonarAnalysisAction analysis = createAnalysis("taskId");
+    when(resolver.resolve("serverUrl", "projUrl", "taskId", "inst", run)).thenReturn(createProj(null));
+
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    scheduled.get(0).run();
+    scheduled.clear();
+
+    assertThat(cache.getNow(resolver, Collections.singletonList(analysis), run, executor)).hasSize(1);
+    assertThat(scheduled).isEmpty();
+  }
+
+  @Test
+  public void testUnresolvedTaskIsRetriedLessAndLessOften() {
+    ProjectInformationCache cache = new ProjectInformationCache(10, Duration.ofHours(1), Duration.ofMillis(200));
+    SonarAnalysisAction analysis = createAnalysis("taskId");
+
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    scheduled.get(0).run();
+    scheduled.clear();
+    await(250);
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    assertThat(scheduled).hasSize(1);
+    scheduled.get(0).run();
+    scheduled.clear();
+
+    // retried after 400ms now
+    await(250);
+    cache.getNow(resolver, Collections.singletonList(analysis), run, executor);
+    assertThat(scheduled).isEmpty();
+  }
+
+  @Test
+  public void testTerminalStatus() {
+    assertThat(ProjectInformationCache.isTerminal(createProj("success"))).isTrue();
+    assertThat(ProjectInformationCache.isTerminal(createProj("failed"))).isTrue();
+    assertThat(ProjectInformationCache.isTerminal(createProj("canceled"))).isTrue();
+    assertThat(ProjectInformationCache.isTerminal(createProj("pending"))).isFalse();
+    assertThat(ProjectInformationCache.isTerminal(createProj("in_progress"))).isFalse();
+    assertThat(ProjectInformationCache.isTerminal(createProj(null))).isFalse();
+  }
+
+  private static void await(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static SonarAnalysisAction createAnalysis(String taskId) {
+    SonarAnalysisAction analysis = new SonarAnalysisAction("inst", "credId", "serverUrl");
+    analysis.setCeTaskId(taskId);
+    analysis.setUrl("projUrl");
+    return analysis;
+  }
+
+  private static ProjectInformation createProj(String ceTaskStatus) {
+    ProjectInformation proj = new ProjectInformation();
+    proj.setCeStatus(ceTaskStatus);
+    proj.setStatus("OK");
+    return proj;
+  }
+}
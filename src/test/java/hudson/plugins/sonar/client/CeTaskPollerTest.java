@@ -0,0 +1,147 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import hudson.plugins.sonar.client.WsClient.CETask;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonarqube.ws.client.HttpException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CeTaskPollerTest {
+  private ScheduledExecutorService executor;
+  private CeTaskPoller poller;
+  private WsClient client;
+  private Map<String, String> results;
+
+  @Before
+  public void setUp() {
+    executor = mock(ScheduledExecutorService.class);
+    poller = new CeTaskPoller(1000, Double.POSITIVE_INFINITY, executor);
+    client = mock(WsClient.class);
+    when(client.getServerUrl()).thenReturn("http://sonar");
+    when(client.getTokenDigest()).thenReturn("digest");
+    results = new HashMap<>();
+  }
+
+  @Test
+  public void tasks_of_a_batch_are_requested_at_once() {
+    Map<String, CETask> activity = new HashMap<>();
+    activity.put("task1", createTask("SUCCESS"));
+    activity.put("task2", createTask("PENDING"));
+    when(client.getCEActivity()).thenReturn(activity);
+
+    poller.poll(client, "task1", callback("task1"));
+    poller.poll(client, "task2", callback("task2"));
+    runScheduled(1);
+
+    assertThat(results).containsOnly(Map.entry("task1", "SUCCESS"), Map.entry("task2", "PENDING"));
+    verify(client, times(1)).getCEActivity();
+    verify(client, never()).getCETask("task1");
+  }
+
+  @Test
+  public void tasks_are_requested_one_by_one_if_activity_is_not_allowed() {
+    when(client.getCEActivity()).thenThrow(new HttpException("http://sonar/api/ce/activity", 403, "forbidden"));
+    when(client.getCETask("task1")).thenReturn(createTask("SUCCESS"));
+    when(client.getCETask("task2")).thenReturn(createTask("FAILED"));
+
+    poller.poll(client, "task1", callback("task1"));
+    poller.poll(client, "task2", callback("task2"));
+    runScheduled(1);
+
+    assertThat(results).containsOnly(Map.entry("task1", "SUCCESS"), Map.entry("task2", "FAILED"));
+
+    // not tried again
+    poller.poll(client, "task1", callback("task1"));
+    poller.poll(client, "task2", callback("task2"));
+    runScheduled(2);
+    verify(client, times(1)).getCEActivity();
+    verify(client, times(2)).getCETask("task1");
+  }
+
+  @Test
+  public void single_task_is_requested_directly() {
+    when(client.getCETask("task1")).thenThrow(new IllegalStateException("Fail to request"));
+
+    poller.poll(client, "task1", callback("task1"));
+    runScheduled(1);
+
+    assertThat(results).containsOnly(Map.entry("task1", "Fail to request"));
+    verify(client, never()).getCEActivity();
+  }
+
+  @Test
+  public void throttled_tasks_are_rescheduled() {
+    poller = new CeTaskPoller(1000, 1, executor);
+    when(client.getCEActivity()).thenThrow(new HttpException("http://sonar/api/ce/activity", 403, "forbidden"));
+    when(client.getCETask("task1")).thenReturn(createTask("SUCCESS"));
+    when(client.getCETask("task2")).thenReturn(createTask("FAILED"));
+
+    poller.poll(client, "task1", callback("task1"));
+    poller.poll(client, "task2", callback("task2"));
+    runScheduled(1);
+
+    // the activity call used the only permit: the tasks wait for the next one
+    assertThat(results).isEmpty();
+    verify(client, never()).getCETask("task1");
+    ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+    verify(executor, times(2)).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+    assertThat(delay.getAllValues().get(1)).isEqualTo(1000L);
+  }
+
+  private void runScheduled(int times) {
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, times(times)).schedule(captor.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    captor.getAllValues().get(times - 1).run();
+  }
+
+  private CeTaskPoller.Callback callback(String taskId) {
+    return new CeTaskPoller.Callback() {
+      @Override
+      public void onResult(CETask task) {
+        results.put(taskId, task.getStatus());
+      }
+
+      @Override
+      public void onError(Exception e) {
+        results.put(taskId, e.getMessage());
+      }
+    };
+  }
+
+  private static CETask createTask(String status) {
+    return new CETask(status, "project", "projectKey", "url", null);
+  }
+}
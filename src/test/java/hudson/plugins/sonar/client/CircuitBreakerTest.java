@@ -0,0 +1,78 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+  private final AtomicLong now = new AtomicLong();
+  private final CircuitBreaker underTest = new CircuitBreaker(3, 1000, now::get);
+
+  @Test
+  public void opens_after_consecutive_failures() {
+    underTest.onFailure();
+    underTest.onFailure();
+    underTest.onSuccess();
+    underTest.onFailure();
+    underTest.onFailure();
+    assertThat(underTest.allowRequest()).isTrue();
+
+    underTest.onFailure();
+    assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(underTest.allowRequest()).isFalse();
+    assertThat(underTest.getRejected()).isEqualTo(1);
+  }
+
+  @Test
+  public void lets_a_single_request_check_the_server_after_a_while() {
+    open();
+
+    now.addAndGet(1000);
+    assertThat(underTest.allowRequest()).isTrue();
+    assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    assertThat(underTest.allowRequest()).isFalse();
+
+    underTest.onSuccess();
+    assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(underTest.allowRequest()).isTrue();
+  }
+
+  @Test
+  public void opens_again_if_the_server_is_still_down() {
+    open();
+
+    now.addAndGet(1000);
+    assertThat(underTest.allowRequest()).isTrue();
+    underTest.onFailure();
+
+    assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(underTest.allowRequest()).isFalse();
+  }
+
+  private void open() {
+    underTest.onFailure();
+    underTest.onFailure();
+    underTest.onFailure();
+    assertThat(underTest.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+  }
+}
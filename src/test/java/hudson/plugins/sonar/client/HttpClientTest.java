@@ -20,6 +20,7 @@
 package hudson.plugins.sonar.client;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import okhttp3.Call;
 import okhttp3.Credentials;
@@ -29,6 +30,7 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.BufferedSource;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -38,6 +40,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -71,6 +76,24 @@ public class HttpClientTest {
     assertThat(content).isEqualTo("body");
   }
 
+  @Test
+  public void request_successful_should_stream_content_to_reader() throws IOException {
+    when(body.charStream()).thenReturn(new StringReader("streamed"));
+
+    assertThat(underTest.getHttp(URL, null, reader -> IOUtils.toString(reader))).isEqualTo("streamed");
+  }
+
+  @Test
+  public void fail_to_stream_response_should_throw_illegal_state_exception() throws IOException {
+    when(body.charStream()).thenReturn(new StringReader("streamed"));
+
+    assertThatThrownBy(() -> underTest.getHttp(URL, null, reader -> {
+      throw new IOException();
+    }))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Fail to read response of http://sonarqube.org/");
+  }
+
   @Test
   public void request_fail_should_throw_http_exception() throws IOException {
     Response failedResponse = new Response.Builder().code(401).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
@@ -81,6 +104,91 @@ public class HttpClientTest {
       .hasMessage("Error 401 on http://sonarqube.org : body");
   }
 
+  @Test
+  public void server_error_should_be_retried() throws IOException {
+    String url = "http://retried.sonarqube.org";
+    Response failedResponse = new Response.Builder().code(502).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
+    when(call.execute()).thenReturn(failedResponse, response);
+
+    assertThat(underTest.getHttp(url, null)).isEqualTo("body");
+    verify(okHttpClient, times(2)).newCall(any());
+  }
+
+  @Test
+  public void server_error_should_throw_http_exception_once_retries_are_exhausted() throws IOException {
+    String url = "http://failing.sonarqube.org";
+    Response failedResponse = new Response.Builder().code(503).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
+    when(call.execute()).thenReturn(failedResponse);
+
+    assertThatThrownBy(() -> underTest.getHttp(url, null))
+      .isInstanceOf(HttpException.class)
+      .hasMessage("Error 503 on http://failing.sonarqube.org : body");
+    verify(okHttpClient, times(3)).newCall(any());
+  }
+
+  @Test
+  public void client_error_should_not_be_retried() throws IOException {
+    Response failedResponse = new Response.Builder().code(404).body(body).protocol(Protocol.HTTP_2).message("message").request(request).build();
+    when(call.execute()).thenReturn(failedResponse);
+
+    assertThatThrownBy(() -> underTest.getHttp(URL, null)).isInstanceOf(HttpException.class);
+    verify(okHttpClient, times(1)).newCall(any());
+  }
+
+  @Test
+  public void unavailable_server_should_not_be_requested() throws IOException {
+    String url = "http://down.sonarqube.org";
+    when(call.execute()).thenThrow(new IOException());
+    for (int i = 0; i < 5; i++) {
+      assertThatThrownBy(() -> underTest.getHttp(url, null)).hasMessage("Fail to request http://down.sonarqube.org/");
+    }
+    assertThat(CircuitBreaker.getStates()).containsEntry("http://down.sonarqube.org:80", CircuitBreaker.State.OPEN);
+    reset(okHttpClient);
+
+    assertThatThrownBy(() -> underTest.getHttp(url, null))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessageStartingWith("Fail to request http://down.sonarqube.org/");
+    verify(okHttpClient, never()).newCall(any());
+  }
+
+  @Test
+  public void circuits_are_not_shared_by_clients() throws IOException {
+    String url = "http://shared.sonarqube.org";
+    when(call.execute()).thenThrow(new IOException());
+    for (int i = 0; i < 5; i++) {
+      assertThatThrownBy(() -> underTest.getHttp(url, null)).hasMessage("Fail to request http://shared.sonarqube.org/");
+    }
+
+    OkHttpClient otherClient = mock(OkHttpClient.class);
+    Call otherCall = mock(Call.class);
+    when(otherClient.newCall(any())).thenReturn(otherCall);
+    when(otherCall.execute()).thenReturn(response);
+
+    assertThat(new HttpClient(otherClient).getHttp(url, null)).isEqualTo("body");
+    assertThat(CircuitBreaker.getStates()).containsEntry("http://shared.sonarqube.org:80", CircuitBreaker.State.OPEN);
+  }
+
+  @Test
+  public void interrupted_request_should_not_be_retried() throws IOException {
+    when(call.execute()).thenThrow(new IOException());
+
+    Thread.currentThread().interrupt();
+    try {
+      assertThatThrownBy(() -> underTest.getHttp(URL, null)).hasMessage("Fail to request http://sonarqube.org/");
+    } finally {
+      Thread.interrupted();
+    }
+    verify(okHttpClient, times(1)).newCall(any());
+  }
+
+  @Test
+  public void error_other_than_network_error_should_not_be_retried() throws IOException {
+    when(call.execute()).thenThrow(new IllegalStateException("unexpected"));
+
+    assertThatThrownBy(() -> underTest.getHttp(URL, null)).hasMessage("unexpected");
+    verify(okHttpClient, times(1)).newCall(any());
+  }
+
   @Test
   public void network_error_should_throw_illegal_state_exception() throws IOException {
     when(call.execute()).thenThrow(new IOException());
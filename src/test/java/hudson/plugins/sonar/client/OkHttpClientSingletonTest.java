@@ -19,6 +19,8 @@
  */
 package hudson.plugins.sonar.client;
 
+import hudson.plugins.sonar.SonarInstallation;
+import okhttp3.OkHttpClient;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -30,4 +32,72 @@ public class OkHttpClientSingletonTest {
     assertThat(OkHttpClientSingleton.getInstance()).isSameAs(OkHttpClientSingleton.getInstance());
   }
 
+  @Test
+  public void installations_without_settings_get_their_own_client() {
+    OkHttpClient base = OkHttpClientSingleton.getInstance();
+    OkHttpClient client = OkHttpClientSingleton.getInstance(installation("sq"));
+
+    assertThat(OkHttpClientSingleton.getInstance(null)).isSameAs(base);
+    assertThat(client).isNotSameAs(base).isSameAs(OkHttpClientSingleton.getInstance(installation("sq")));
+    assertThat(client.connectionPool()).isNotSameAs(base.connectionPool());
+    assertThat(client.dispatcher()).isNotSameAs(base.dispatcher());
+    assertThat(client.connectTimeoutMillis()).isEqualTo(base.connectTimeoutMillis());
+    assertThat(client.interceptors()).hasSize(base.interceptors().size());
+  }
+
+  @Test
+  public void installations_with_settings_get_their_own_client() {
+    SonarInstallation tuned = tuned(installation("sq"));
+
+    OkHttpClient client = OkHttpClientSingleton.getInstance(tuned);
+    OkHttpClient base = OkHttpClientSingleton.getInstance();
+    assertThat(client).isNotSameAs(base).isSameAs(OkHttpClientSingleton.getInstance(tuned(installation("sq"))));
+    assertThat(client.connectionPool()).isNotSameAs(base.connectionPool());
+    assertThat(client.dispatcher()).isNotSameAs(base.dispatcher());
+    assertThat(client.connectTimeoutMillis()).isEqualTo(3000);
+    assertThat(client.readTimeoutMillis()).isEqualTo(4000);
+    assertThat(client.writeTimeoutMillis()).isEqualTo(base.writeTimeoutMillis());
+    assertThat(client.dispatcher().getMaxRequestsPerHost()).isEqualTo(5);
+    assertThat(client.interceptors()).hasSize(base.interceptors().size() + 1);
+
+    OkHttpClientSingleton.PoolStats stats = OkHttpClientSingleton.getPoolStats(tuned);
+    assertThat(stats.getConnections()).isZero();
+    assertThat(stats.getRunningCalls()).isZero();
+    assertThat(stats.getQueuedCalls()).isZero();
+  }
+
+  @Test
+  public void installations_with_the_same_settings_are_isolated() {
+    OkHttpClient client = OkHttpClientSingleton.getInstance(tuned(installation("sq")));
+    OkHttpClient other = OkHttpClientSingleton.getInstance(tuned(installation("other")));
+
+    assertThat(other).isNotSameAs(client);
+    assertThat(other.connectionPool()).isNotSameAs(client.connectionPool());
+    assertThat(other.dispatcher()).isNotSameAs(client.dispatcher());
+    // each one has its own concurrency limit
+    assertThat(other.interceptors()).doesNotContainAnyElementsOf(client.interceptors());
+  }
+
+  @Test
+  public void new_client_when_the_server_changes() {
+    SonarInstallation installation = installation("sq");
+    SonarInstallation moved = new SonarInstallation("sq", "http://elsewhere", null, null, null, null, null, null, null);
+    SonarInstallation trailingSlash = new SonarInstallation("sq", "http://sq/", null, null, null, null, null, null, null);
+
+    assertThat(OkHttpClientSingleton.getInstance(moved)).isNotSameAs(OkHttpClientSingleton.getInstance(installation));
+    assertThat(OkHttpClientSingleton.getInstance(trailingSlash)).isSameAs(OkHttpClientSingleton.getInstance(installation));
+  }
+
+  private static SonarInstallation tuned(SonarInstallation installation) {
+    installation.setConnectionPoolSize(2);
+    installation.setConnectTimeoutSeconds(3);
+    installation.setReadTimeoutSeconds(4);
+    installation.setMaxConcurrentRequests(5);
+    return installation;
+  }
+
+  private static SonarInstallation installation(String name) {
+    return new SonarInstallation(name, "http://" + name, null, null, null, null, null, null, null);
+  }
+
 }
@@ -27,8 +27,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
@@ -37,6 +39,7 @@ import java.nio.file.Paths;
 import org.sonarqube.ws.client.HttpException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.mock;
@@ -76,8 +79,8 @@ public class SQProjectResolverTest extends SonarTestCase {
     assertThat(proj.getProjectName()).isEqualTo("SonarLint CLI");
     assertThat(proj.getErrors()).isNullOrEmpty();
 
-    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN));
-    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN));
+    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN), any());
+    verify(client).getHttp(Mockito.startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any());
 
     verifyNoMoreInteractions(client);
   }
@@ -102,7 +105,7 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenThrow(new HttpException(SERVER_URL, 404, "oops"));
+    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any())).thenThrow(new HttpException(SERVER_URL, 404, "oops"));
     ProjectInformation proj = resolver.resolve(SERVER_URL, PROJECT_URL, null, testName.getMethodName(), mock(Run.class));
     assertThat(proj).isNull();
   }
@@ -114,7 +117,7 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenThrow(new HttpException(SERVER_URL, 500, "oops"));
+    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any())).thenThrow(new HttpException(SERVER_URL, 500, "oops"));
     ProjectInformation proj = resolver.resolve(SERVER_URL, PROJECT_URL, null, testName.getMethodName(), mock(Run.class));
     assertThat(proj).isNull();
   }
@@ -141,8 +144,12 @@ public class SQProjectResolverTest extends SonarTestCase {
     addCredential(CREDENTIAL_ID, TOKEN);
     configureSonar(inst);
 
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN))).thenReturn(getFile("projectStatus.json"));
-    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN))).thenReturn(getFile("ce_task.json"));
+    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_PROJECT_STATUS_WITH_ANALYSISID), eq(TOKEN), any())).thenAnswer(body(getFile("projectStatus.json")));
+    when(client.getHttp(startsWith(SERVER_URL + WsClient.API_CE_TASK), eq(TOKEN), any())).thenAnswer(body(getFile("ce_task.json")));
+  }
+
+  private static Answer<Object> body(String content) {
+    return invocation -> invocation.<HttpClient.BodyReader<?>>getArgument(2).read(new StringReader(content));
   }
 
   private String getFile(String name) throws IOException, URISyntaxException {
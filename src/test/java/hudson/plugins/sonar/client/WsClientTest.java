@@ -21,20 +21,24 @@ package hudson.plugins.sonar.client;
 
 import hudson.plugins.sonar.client.WsClient.CETask;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,6 +55,7 @@ public class WsClientTest {
 
   @Before
   public void setUp() {
+    WsClient.invalidateMemos();
     wsClient = new WsClient(client, SERVER_URL, TOKEN);
   }
 
@@ -68,6 +73,60 @@ public class WsClientTest {
     verifyWs(ws);
   }
 
+  @Test
+  public void terminal_tasks_are_memoized() throws Exception {
+    String ws = "/api/ce/task?id=" + TASK_ID;
+    mockWs(ws, getFile("ce_task.json"));
+
+    CETask ceTask = wsClient.getCETask(TASK_ID);
+
+    assertThat(new WsClient(client, SERVER_URL, TOKEN).getCETask(TASK_ID)).isSameAs(ceTask);
+    verifyWs(ws);
+    // another token may not be allowed to see the task
+    new WsClient(client, SERVER_URL, "other").getCETask(TASK_ID);
+    verify(client).getHttp(eq(SERVER_URL + ws), eq("other"), any());
+  }
+
+  @Test
+  public void pending_tasks_are_not_memoized() throws Exception {
+    String ws = "/api/ce/task?id=" + TASK_ID;
+    mockWs(ws, "{\"task\": {\"status\": \"PENDING\", \"componentName\": \"name\", \"componentKey\": \"key\"}}");
+
+    wsClient.getCETask(TASK_ID);
+    wsClient.getCETask(TASK_ID);
+
+    verify(client, times(2)).getHttp(eq(SERVER_URL + ws), eq(TOKEN), any());
+  }
+
+  @Test
+  public void quality_gates_are_memoized() throws Exception {
+    String ws = WsClient.API_PROJECT_STATUS_WITH_ANALYSISID + "analysis1";
+    mockWs(ws, "{\"projectStatus\": {\"status\": \"OK\"}}");
+
+    assertThat(wsClient.requestQualityGateStatus("analysis1")).isEqualTo("OK");
+    assertThat(wsClient.requestQualityGateStatus("analysis1")).isEqualTo("OK");
+
+    verifyWs(ws);
+  }
+
+  @Test
+  public void testCEActivity() throws Exception {
+    String ws = WsClient.API_CE_ACTIVITY + WsClient.CE_ACTIVITY_MAX_PAGE_SIZE;
+    mockWs(ws, "{\"tasks\": [" +
+      "{\"id\": \"task1\", \"componentKey\": \"project1\", \"componentName\": \"Project 1\", \"status\": \"SUCCESS\", \"analysisId\": \"analysis1\"}," +
+      "{\"id\": \"task2\", \"componentKey\": \"project2\", \"componentName\": \"Project 2\", \"status\": \"PENDING\"}]}");
+
+    Map<String, CETask> tasks = wsClient.getCEActivity();
+
+    assertThat(tasks).containsOnlyKeys("task1", "task2");
+    assertThat(tasks.get("task1").getAnalysisId()).isEqualTo("analysis1");
+    assertThat(tasks.get("task1").getComponentName()).isEqualTo("Project 1");
+    assertThat(tasks.get("task1").getUrl()).isEqualTo(SERVER_URL + WsClient.API_CE_TASK + "task1");
+    assertThat(tasks.get("task2").getStatus()).isEqualTo("PENDING");
+    assertThat(tasks.get("task2").getAnalysisId()).isNull();
+    verify(client).getHttp(SERVER_URL + ws, TOKEN);
+  }
+
   @Test
   public void testGetVersion() throws Exception {
     setSQVersion(5.1f);
@@ -78,12 +137,19 @@ public class WsClientTest {
 
   @Test
   public void testConnectionError() throws Exception {
-    when(client.getHttp(anyString(), anyString())).thenThrow(RuntimeException.class);
+    when(client.getHttp(anyString(), anyString(), any())).thenThrow(RuntimeException.class);
 
     exception.expect(Exception.class);
     wsClient.getCETask(TASK_ID);
   }
 
+  @Test
+  public void memo_keys_hold_a_digest_of_the_token() {
+    assertThat(WsClient.digest(TOKEN)).isEqualTo(WsClient.digest(TOKEN)).doesNotContain(TOKEN).hasSize(64);
+    assertThat(WsClient.digest("other")).isNotEqualTo(WsClient.digest(TOKEN));
+    assertThat(WsClient.digest(null)).isNull();
+  }
+
   @Test
   public void testUrlFormat() {
     new WsClient(client, "http://url.com/", null).getServerVersion();
@@ -95,11 +161,13 @@ public class WsClientTest {
   }
 
   private void verifyWs(String ws) throws Exception {
-    verify(client).getHttp(SERVER_URL + ws, TOKEN);
+    verify(client).getHttp(eq(SERVER_URL + ws), eq(TOKEN), any());
   }
 
   private void mockWs(String ws, String response) throws Exception {
     when(client.getHttp(eq(SERVER_URL + ws), anyString())).thenReturn(response);
+    when(client.getHttp(eq(SERVER_URL + ws), anyString(), any())).thenAnswer(
+      invocation -> invocation.<HttpClient.BodyReader<?>>getArgument(2).read(new StringReader(response)));
   }
 
   private String getFile(String name) throws IOException, URISyntaxException {
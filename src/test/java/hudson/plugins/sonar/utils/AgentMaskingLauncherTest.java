@@ -0,0 +1,68 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+public class AgentMaskingLauncherTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void output_is_masked_before_reaching_the_controller() throws Exception {
+    assumeFalse(Functions.isWindows());
+    DumbSlave agent = j.createOnlineSlave();
+    SecretMatcher matcher = SecretMatcher.compile(Collections.singletonList("mytoken"), StandardCharsets.UTF_8);
+    Launcher launcher = new AgentMaskingLauncher(agent.createLauncher(TaskListener.NULL), matcher, StandardCharsets.UTF_8);
+
+    // what the controller receives, without any log filter
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int exitCode = launcher.launch().cmds("sh", "-c", "echo the token is $TOKEN; echo done").envs("TOKEN=mytoken").stdout(out).quiet(true).join();
+
+    assertThat(exitCode).isZero();
+    assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("the token is ******\ndone\n");
+  }
+
+  @Test
+  public void exit_code_of_the_agent_process() throws Exception {
+    assumeFalse(Functions.isWindows());
+    DumbSlave agent = j.createOnlineSlave();
+    SecretMatcher matcher = SecretMatcher.compile(Collections.singletonList("mytoken"), StandardCharsets.UTF_8);
+    Launcher launcher = new AgentMaskingLauncher(agent.createLauncher(TaskListener.NULL), matcher, StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int exitCode = launcher.launch().cmds("sh", "-c", "exit 3").stdout(out).quiet(true).join();
+
+    assertThat(exitCode).isEqualTo(3);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import net.sf.json.JSONException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class JsonFieldExtractorTest {
+
+  @Test
+  public void should_extract_nested_fields_and_skip_the_rest() throws IOException {
+    String json = "{\n" +
+      "  \"serverUrl\": \"http://localhost:9000\",\n" +
+      "  \"taskId\": \"AVh21JS2JepAEhwQ-b3u\",\n" +
+      "  \"status\": \"SUCCESS\",\n" +
+      "  \"analysedAt\": \"2016-11-18T10:46:28+0100\",\n" +
+      "  \"project\": {\"key\": \"myproject\", \"name\": \"My \\\"Project\\\" \\u00e9\", \"url\": \"https://mycompany.com/sonarqube/dashboard?id=myproject\"},\n" +
+      "  \"properties\": {},\n" +
+      "  \"qualityGate\": {\n" +
+      "    \"conditions\": [{\"errorThreshold\": \"1\", \"metric\": \"new_security_rating\", \"onLeakPeriod\": true, \"status\": \"ERROR\"}, [], null, 1.5e3],\n" +
+      "    \"name\": \"SonarQube way\",\n" +
+      "    \"status\": \"OK\"\n" +
+      "  }\n" +
+      "}";
+
+    Map<String, String> fields = JsonFieldExtractor.extract(new StringReader(json),
+      List.of("taskId", "status", "project.name", "project.url", "qualityGate.status", "missing", "project.missing"));
+
+    assertThat(fields).containsOnly(
+      entry("taskId", "AVh21JS2JepAEhwQ-b3u"),
+      entry("status", "SUCCESS"),
+      entry("project.name", "My \"Project\" \u00e9"),
+      entry("project.url", "https://mycompany.com/sonarqube/dashboard?id=myproject"),
+      entry("qualityGate.status", "OK"));
+  }
+
+  @Test
+  public void should_accept_unquoted_keys_and_literals() throws IOException {
+    Map<String, String> fields = JsonFieldExtractor.extract(new StringReader("{ task: { status: 'PENDING', analysisId: null, count: 3, done: false } }"),
+      List.of("task.status", "task.analysisId", "task.count", "task.done"));
+
+    assertThat(fields).containsOnly(entry("task.status", "PENDING"), entry("task.count", "3"), entry("task.done", "false"));
+  }
+
+  @Test
+  public void should_stop_reading_once_all_fields_are_found() throws IOException {
+    Map<String, String> fields = JsonFieldExtractor.extract(new StringReader("{\"a\": {\"b\": \"c\"}, this is not read"), List.of("a.b"));
+
+    assertThat(fields).containsOnly(entry("a.b", "c"));
+  }
+
+  @Test
+  public void should_reject_malformed_documents() {
+    assertThatThrownBy(() -> JsonFieldExtractor.extract(new StringReader("foo"), List.of("a"))).isInstanceOf(JSONException.class);
+    assertThatThrownBy(() -> JsonFieldExtractor.extract(new StringReader("{\"a\": \"b"), List.of("a"))).isInstanceOf(JSONException.class);
+    assertThatThrownBy(() -> JsonFieldExtractor.extract(new StringReader("{\"a\" \"b\"}"), List.of("a"))).isInstanceOf(JSONException.class);
+    assertThatThrownBy(() -> JsonFieldExtractor.extract(new StringReader("{\"a\": }"), List.of("a"))).isInstanceOf(JSONException.class);
+    assertThatThrownBy(() -> JsonFieldExtractor.extract(new StringReader("{\"x\": " + "[".repeat(100)), List.of("a"))).isInstanceOf(JSONException.class);
+  }
+}
@@ -22,6 +22,7 @@ package hudson.plugins.sonar.utils;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -61,6 +62,75 @@ public class MaskPasswordsOutputStreamTest {
     assertWritten(t, "password=******");
   }
 
+  @Test
+  public void linesWithoutPasswordAreCopiedUntouched() throws IOException {
+    os = new ByteArrayOutputStream();
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList("secret"));
+    // not valid UTF-8
+    byte[] line = {'a', (byte) 0xC3, (byte) 0x28, 'b', '\n'};
+    filteredOs.write(line);
+    filteredOs.close();
+
+    assertThat(os.toByteArray()).containsExactly(line);
+  }
+
+  @Test
+  public void outputMaskedUpstreamIsNotScannedAgain() throws IOException {
+    os = new ByteArrayOutputStream();
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList("secret"), StandardCharsets.UTF_8);
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, matcher);
+    OutputStream premasked = MaskPasswordsOutputStream.premasked(filteredOs, matcher);
+
+    // only scanned for secrets if part of the line was not masked upstream
+    premasked.write("copied as is: secret\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.write("controller ".getBytes(StandardCharsets.UTF_8));
+    premasked.write("secret\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.write("secret\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.close();
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo("copied as is: secret\ncontroller ******\n******\n");
+  }
+
+  @Test
+  public void controllerOutputBufferedWithPremaskedOutputIsScanned() throws IOException {
+    os = new ByteArrayOutputStream();
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList("secret"), StandardCharsets.UTF_8);
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, matcher);
+    // a filter in between that buffers lines, and writes them from its own buffer
+    ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    OutputStream lineBuffer = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        pending.write(b);
+        if (b == '\n') {
+          filteredOs.write(pending.toByteArray());
+          pending.reset();
+        }
+      }
+    };
+    OutputStream premasked = MaskPasswordsOutputStream.premasked(lineBuffer, matcher);
+
+    lineBuffer.write("controller secret, ".getBytes(StandardCharsets.UTF_8));
+    premasked.write("agent ******\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.write("controller secret, ".getBytes(StandardCharsets.UTF_8));
+    premasked.write("agent ******\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.close();
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo("controller ******, agent ******\ncontroller ******, agent ******\n");
+  }
+
+  @Test
+  public void outputMaskedWithOtherSecretsIsScanned() throws IOException {
+    os = new ByteArrayOutputStream();
+    MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList("secret"));
+    OutputStream premasked = MaskPasswordsOutputStream.premasked(filteredOs, SecretMatcher.compile(Arrays.asList("other"), StandardCharsets.UTF_8));
+
+    premasked.write("secret\n".getBytes(StandardCharsets.UTF_8));
+    filteredOs.close();
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo("******\n");
+  }
+
   private BufferedWriter getWriter(String... passwords) {
     os = new ByteArrayOutputStream();
     MaskPasswordsOutputStream filteredOs = new MaskPasswordsOutputStream(os, StandardCharsets.UTF_8, Arrays.asList(passwords));
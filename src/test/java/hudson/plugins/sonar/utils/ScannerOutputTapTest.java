@@ -0,0 +1,99 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScannerOutputTapTest {
+
+  @Test
+  public void should_capture_analysis_metadata_and_forward_output() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ScannerOutputTap tap = new ScannerOutputTap(os, StandardCharsets.UTF_8);
+    String output = "INFO: Analysis report uploaded in 42ms\n"
+      + "DEBUG: Report metadata written to /work/.scannerwork/report-task.txt\n"
+      + "INFO: ANALYSIS SUCCESSFUL, you can find the results at: http://localhost:9000/dashboard?id=foo\n"
+      + "INFO: More about the report processing at http://localhost:9000/api/ce/task?id=AYzPsI8CN2oYarIFiK6r\n"
+      + "INFO: EXECUTION SUCCESS";
+    try (PrintStream ps = new PrintStream(tap, false, StandardCharsets.UTF_8)) {
+      ps.print(output);
+    }
+
+    assertThat(os.toString(StandardCharsets.UTF_8)).isEqualTo(output);
+    ScannerOutputTap.Result result = tap.getResult();
+    assertThat(result.hasAnalysis()).isTrue();
+    assertThat(result.isJava11Warning()).isFalse();
+    assertThat(result.getReportTaskPath()).isEqualTo("/work/.scannerwork/report-task.txt");
+
+    Properties reportTask = result.toReportTask();
+    assertThat(reportTask.getProperty(SonarUtils.CE_TASK_ID_KEY)).isEqualTo("AYzPsI8CN2oYarIFiK6r");
+    assertThat(reportTask.getProperty(SonarUtils.SERVER_URL_KEY)).isEqualTo("http://localhost:9000");
+    assertThat(reportTask.getProperty(SonarUtils.DASHBOARD_URL_KEY)).isEqualTo("http://localhost:9000/dashboard?id=foo");
+  }
+
+  @Test
+  public void should_ignore_ce_task_urls_not_printed_by_the_scanner() throws IOException {
+    ScannerOutputTap tap = new ScannerOutputTap(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+    try (PrintStream ps = new PrintStream(tap, false, StandardCharsets.UTF_8)) {
+      ps.println("+ curl \"https://sonar/api/ce/task?id=X\"");
+      ps.println("{\"task\":{\"id\":\"X\",\"url\":\"https://sonar/api/ce/task?id=X\"}}");
+    }
+
+    assertThat(tap.getResult().hasAnalysis()).isFalse();
+    assertThat(tap.getResult().getCeTaskId()).isNull();
+    assertThat(tap.getResult().getServerUrl()).isNull();
+  }
+
+  @Test
+  public void should_keep_the_first_analysis() throws IOException {
+    ScannerOutputTap tap = new ScannerOutputTap(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+    try (PrintStream ps = new PrintStream(tap, false, StandardCharsets.UTF_8)) {
+      ps.println("INFO: ANALYSIS SUCCESSFUL, you can find the results at: http://localhost:9000/dashboard?id=first");
+      ps.println("INFO: More about the report processing at http://localhost:9000/api/ce/task?id=task1");
+      ps.println("+ curl \"https://sonar/api/ce/task?id=task1\"");
+      ps.println("INFO: ANALYSIS SUCCESSFUL, you can find the results at: http://localhost:9000/dashboard?id=second");
+      ps.println("INFO: More about the report processing at http://localhost:9000/api/ce/task?id=task2");
+    }
+
+    Properties reportTask = tap.getResult().toReportTask();
+    assertThat(reportTask.getProperty(SonarUtils.CE_TASK_ID_KEY)).isEqualTo("task1");
+    assertThat(reportTask.getProperty(SonarUtils.SERVER_URL_KEY)).isEqualTo("http://localhost:9000");
+    assertThat(reportTask.getProperty(SonarUtils.DASHBOARD_URL_KEY)).isEqualTo("http://localhost:9000/dashboard?id=first");
+  }
+
+  @Test
+  public void should_detect_java_11_warning() throws IOException {
+    ScannerOutputTap tap = new ScannerOutputTap(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+    try (PrintStream ps = new PrintStream(tap, false, StandardCharsets.UTF_8)) {
+      ps.println("WARN: The version of Java (1.8.0_101) you have used to run this analysis is deprecated. Please update to at least Java 11.");
+    }
+
+    assertThat(tap.getResult().isJava11Warning()).isTrue();
+    assertThat(tap.getResult().hasAnalysis()).isFalse();
+    assertThat(tap.getResult().toReportTask()).isNull();
+  }
+}
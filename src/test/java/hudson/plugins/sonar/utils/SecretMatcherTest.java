@@ -0,0 +1,139 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package hudson.plugins.sonar.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SecretMatcherTest {
+
+  @Test
+  public void no_matcher_without_secrets() {
+    assertThat(SecretMatcher.compile(Collections.emptyList(), StandardCharsets.UTF_8)).isNull();
+    assertThat(SecretMatcher.compile(Arrays.asList("", null), StandardCharsets.UTF_8)).isNull();
+  }
+
+  @Test
+  public void masks_every_occurrence() throws IOException {
+    assertThat(mask("our admin is admin", "pass1", "admin")).isEqualTo("our * is *");
+    assertThat(mask("adminadmin", "admin")).isEqualTo("**");
+    assertThat(mask("ushers she he", "he", "she", "his", "hers")).isEqualTo("u* * *");
+    assertThat(mask("aaab", "aab")).isEqualTo("a*");
+  }
+
+  @Test
+  public void overlapping_secrets_are_masked_at_once() throws IOException {
+    assertThat(mask("xabcx", "ab", "bc")).isEqualTo("x*x");
+    assertThat(mask("xabcdx", "bc", "abcd")).isEqualTo("x*x");
+  }
+
+  @Test
+  public void matches_encoded_bytes() throws IOException {
+    assertThat(mask("é€secret€é", "€secret€")).isEqualTo("é*é");
+  }
+
+  @Test
+  public void lines_without_secrets_are_not_matched() {
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList("secret", "token"), StandardCharsets.UTF_8);
+    byte[] line = "a secre and a toke".getBytes(StandardCharsets.UTF_8);
+
+    assertThat(matcher.containsAny(line, line.length)).isFalse();
+    byte[] withSecret = "a secret".getBytes(StandardCharsets.UTF_8);
+    assertThat(matcher.containsAny(withSecret, withSecret.length)).isTrue();
+    // only the given length is scanned
+    assertThat(matcher.containsAny(withSecret, withSecret.length - 1)).isFalse();
+  }
+
+  @Test
+  public void encoded_forms_of_secrets() throws IOException {
+    Set<String> forms = SecretMatcher.withEncodedForms("squ_a/b\"c");
+
+    assertThat(forms).containsExactly("squ_a/b\"c",
+      Base64.getEncoder().withoutPadding().encodeToString("squ_a/b\"c:".getBytes(StandardCharsets.UTF_8)),
+      Base64.getEncoder().withoutPadding().encodeToString("squ_a/b\"c".getBytes(StandardCharsets.UTF_8)),
+      "squ_a%2Fb%22c",
+      "squ_a/b\\\"c",
+      "squ_a\\/b\\\"c");
+    String basicAuth = "Authorization: Basic " + Base64.getEncoder().encodeToString("squ_a/b\"c:".getBytes(StandardCharsets.UTF_8));
+    assertThat(mask(basicAuth, forms.toArray(new String[0]))).isEqualTo("Authorization: Basic *==");
+  }
+
+  @Test
+  public void forms_are_not_repeated() {
+    assertThat(SecretMatcher.withEncodedForms("squ_0123")).hasSize(3);
+  }
+
+  @Test
+  public void matchers_of_the_same_secrets_are_shared() {
+    SecretMatcher.invalidateCache();
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList("token", "secret"), StandardCharsets.UTF_8);
+
+    assertThat(SecretMatcher.compile(Arrays.asList("secret", "token", "secret"), StandardCharsets.UTF_8)).isSameAs(matcher);
+    assertThat(SecretMatcher.compile(Arrays.asList("secret", "token2"), StandardCharsets.UTF_8)).isNotSameAs(matcher);
+    assertThat(SecretMatcher.compile(Arrays.asList("secret", "token"), StandardCharsets.UTF_16)).isNotSameAs(matcher);
+  }
+
+  @Test
+  public void serialized_as_its_secrets() throws Exception {
+    String[] secrets = new String[100];
+    for (int i = 0; i < secrets.length; i++) {
+      secrets[i] = "squ_" + i + "_0123456789";
+    }
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList(secrets), StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(matcher);
+    }
+    // the automaton has thousands of states
+    assertThat(bytes.size()).isLessThan(4000);
+
+    SecretMatcher.invalidateCache();
+    SecretMatcher read;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (SecretMatcher) in.readObject();
+    }
+    assertThat(read).isNotSameAs(matcher);
+    assertThat(SecretMatcher.compile(Arrays.asList(secrets), StandardCharsets.UTF_8)).isSameAs(read);
+    byte[] line = "token: squ_42_0123456789".getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream masked = new ByteArrayOutputStream();
+    read.writeMasked(line, line.length, "*".getBytes(StandardCharsets.UTF_8), masked);
+    assertThat(masked.toString(StandardCharsets.UTF_8)).isEqualTo("token: *");
+  }
+
+  private static String mask(String line, String... secrets) throws IOException {
+    SecretMatcher matcher = SecretMatcher.compile(Arrays.asList(secrets), StandardCharsets.UTF_8);
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    matcher.writeMasked(bytes, bytes.length, "*".getBytes(StandardCharsets.UTF_8), out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+}
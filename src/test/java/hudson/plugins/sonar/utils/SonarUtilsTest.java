@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -125,6 +126,26 @@ public class SonarUtilsTest {
     verify(build).addAction(action);
   }
 
+  @Test
+  public void extractReportTask_should_prefer_known_directories_and_skip_pruned_ones() throws Exception {
+    File pruned = new File(workspaceFolder.getRoot(), "node_modules/some-module");
+    pruned.mkdirs();
+    FileUtils.writeLines(new File(pruned, REPORT_TASK_FILE_NAME), List.of("ceTaskId=pruned"));
+    TaskListener listener = mock(TaskListener.class);
+    when(listener.getLogger()).thenReturn(mock(PrintStream.class));
+    FilePath workspace = new FilePath(workspaceFolder.getRoot());
+
+    assertThat(SonarUtils.extractReportTask(listener, workspace)).isNull();
+
+    File nested = workspaceFolder.newFolder("module", "out");
+    FileUtils.writeLines(new File(nested, REPORT_TASK_FILE_NAME), List.of("ceTaskId=nested"));
+    assertThat(SonarUtils.extractReportTask(listener, workspace).getProperty("ceTaskId")).isEqualTo("nested");
+
+    File known = workspaceFolder.newFolder(".scannerwork");
+    FileUtils.writeLines(new File(known, REPORT_TASK_FILE_NAME), List.of("ceTaskId=known"));
+    assertThat(SonarUtils.extractReportTask(listener, workspace).getProperty("ceTaskId")).isEqualTo("known");
+  }
+
   @Test
   public void should_mark_build_as_unstable_when_java_warning_is_logged() throws Exception {
     Run r = mockedBuild("The version of Java (1.8.0_101) you have used to run this analysis is deprecated and we will stop accepting it from October 2020. Please update to at least Java 11.");
@@ -156,6 +177,17 @@ public class SonarUtilsTest {
     verify(printStream, never()).println("Pipeline marked as 'UNSTABLE'. Please update to at least Java 11. Find more information here on how to do this: https://sonarcloud.io/documentation/appendices/move-analysis-java-11/");
   }
 
+  @Test
+  public void contains_should_find_text_spanning_buffer_boundaries() throws Exception {
+    String text = "Please update to at least Java 11.";
+    for (int offset : new int[] {0, 8180, 8192, 8200, 3 * 8192 - 10}) {
+      String log = StringUtils.repeat('x', offset) + text + StringUtils.repeat('y', 100);
+      assertThat(SonarUtils.contains(new StringReader(log), text)).isTrue();
+    }
+    assertThat(SonarUtils.contains(new StringReader(StringUtils.repeat("Please update to at least Java 1", 1000)), text)).isFalse();
+    assertThat(SonarUtils.contains(new StringReader(""), text)).isFalse();
+  }
+
   @Test
   public void getTokenProperty_whenSQVersionHigherThan10_shouldReturnSonarToken() {
     SonarInstallation sonarInstallation = new SonarInstallation("inst", "https://url.com", null, null, null, null, null, null, null);
@@ -180,6 +212,24 @@ public class SonarUtilsTest {
     assertThat(SonarUtils.getTokenProperty(sonarInstallation, client)).isEqualTo(SonarUtils.PROPERTY_SONAR_LOGIN);
   }
 
+  @Test
+  public void getTokenProperty_shouldRequestVersionOncePerInstallation() {
+    SonarInstallation sonarInstallation = new SonarInstallation("inst", "https://url.com", null, null, null, null, null, null, null);
+    HttpClient client = mock(HttpClient.class);
+    when(client.getHttp(sonarInstallation.getServerUrl() + WsClient.API_VERSION, null)).thenReturn("10.0");
+    long hits = SonarUtils.getServerVersionCacheStats().hitCount();
+
+    assertThat(SonarUtils.getTokenProperty(sonarInstallation, client)).isEqualTo(SonarUtils.PROPERTY_SONAR_TOKEN);
+    assertThat(SonarUtils.getTokenProperty(sonarInstallation, client)).isEqualTo(SonarUtils.PROPERTY_SONAR_TOKEN);
+
+    verify(client, times(1)).getHttp(sonarInstallation.getServerUrl() + WsClient.API_VERSION, null);
+    assertThat(SonarUtils.getServerVersionCacheStats().hitCount()).isEqualTo(hits + 1);
+
+    SonarUtils.invalidateServerVersions(sonarInstallation);
+    SonarUtils.getTokenProperty(sonarInstallation, client);
+    verify(client, times(2)).getHttp(sonarInstallation.getServerUrl() + WsClient.API_VERSION, null);
+  }
+
   @Test
   public void getTokenProperty_whenIsSonarCloud_shouldReturnSonarToken() {
     SonarInstallation sonarInstallation = new SonarInstallation("inst", "https://sonarcloud.io", null, null, null, null, null, null, null);
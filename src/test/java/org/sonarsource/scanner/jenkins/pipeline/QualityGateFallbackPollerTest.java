@@ -0,0 +1,153 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import hudson.plugins.sonar.client.CeTaskPoller;
+import hudson.plugins.sonar.client.WsClient;
+import hudson.plugins.sonar.client.WsClient.CETask;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+public class QualityGateFallbackPollerTest {
+  private static final Duration THRESHOLD = Duration.ofMinutes(5);
+  private static final Duration INITIAL_INTERVAL = Duration.ofMinutes(1);
+  private static final Duration MAX_INTERVAL = Duration.ofMinutes(30);
+
+  private final MutableClock clock = new MutableClock();
+  private CeTaskPoller ceTaskPoller;
+  private QualityGateFallbackPoller poller;
+  private FakeWaiter waiter;
+
+  @Before
+  public void setUp() {
+    ceTaskPoller = mock(CeTaskPoller.class);
+    poller = new QualityGateFallbackPoller(THRESHOLD, INITIAL_INTERVAL, MAX_INTERVAL, ceTaskPoller, clock);
+    waiter = new FakeWaiter();
+    poller.register(waiter);
+  }
+
+  @Test
+  public void task_is_only_checked_after_threshold() {
+    clock.advance(THRESHOLD.minusSeconds(1));
+    poller.tick();
+    verify(ceTaskPoller, never()).poll(any(), any(), any());
+
+    clock.advance(Duration.ofSeconds(1));
+    poller.tick();
+    verify(ceTaskPoller).poll(eq(waiter.client), eq("task1"), any());
+  }
+
+  @Test
+  public void pending_task_is_checked_again_with_backoff() {
+    long previousInterval = 0;
+    for (int i = 0; i < 8; i++) {
+      clock.advance(THRESHOLD.plus(MAX_INTERVAL));
+      poller.tick();
+      pollCallback().onResult(createTask("PENDING"));
+
+      long interval = poller.nextCheck(waiter) - clock.millis();
+      long expected = Math.min(MAX_INTERVAL.toMillis(), INITIAL_INTERVAL.toMillis() << i);
+      assertThat(interval).isBetween((long) (expected * 0.8), (long) (expected * 1.2));
+      if (expected < MAX_INTERVAL.toMillis()) {
+        assertThat(interval).isGreaterThan(previousInterval);
+      }
+      previousInterval = interval;
+    }
+    assertThat(poller.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void waiter_is_removed_once_completed() {
+    clock.advance(THRESHOLD);
+    poller.tick();
+    pollCallback().onError(new IllegalStateException("unreachable"));
+    assertThat(poller.size()).isEqualTo(1);
+
+    clock.advance(MAX_INTERVAL);
+    poller.tick();
+    waiter.done = true;
+    pollCallback().onResult(createTask("SUCCESS"));
+
+    assertThat(waiter.received).containsExactly("SUCCESS");
+    assertThat(poller.size()).isZero();
+  }
+
+  @Test
+  public void check_in_flight_is_not_repeated() {
+    clock.advance(THRESHOLD);
+    poller.tick();
+    clock.advance(MAX_INTERVAL);
+    poller.tick();
+    verify(ceTaskPoller).poll(any(), any(), any());
+  }
+
+  @Test
+  public void unregistered_waiter_is_not_checked() {
+    poller.unregister(waiter);
+    clock.advance(THRESHOLD);
+    poller.tick();
+    verify(ceTaskPoller, never()).poll(any(), any(), any());
+  }
+
+  private CeTaskPoller.Callback pollCallback() {
+    ArgumentCaptor<CeTaskPoller.Callback> captor = ArgumentCaptor.forClass(CeTaskPoller.Callback.class);
+    verify(ceTaskPoller).poll(eq(waiter.client), eq("task1"), captor.capture());
+    reset(ceTaskPoller);
+    return captor.getValue();
+  }
+
+  private static CETask createTask(String status) {
+    return new CETask(status, "project", "projectKey", "url", null);
+  }
+
+  private static class FakeWaiter implements QualityGateFallbackPoller.Waiter {
+    private final WsClient client = mock(WsClient.class);
+    private final List<String> received = new ArrayList<>();
+    private boolean done;
+
+    @Override
+    public String getTaskId() {
+      return "task1";
+    }
+
+    @Override
+    public WsClient createWsClient() {
+      return client;
+    }
+
+    @Override
+    public boolean onTask(WsClient client, CETask task) {
+      received.add(task.getStatus());
+      return done;
+    }
+  }
+}
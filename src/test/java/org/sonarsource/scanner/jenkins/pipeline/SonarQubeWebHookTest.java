@@ -19,8 +19,13 @@
  */
 package org.sonarsource.scanner.jenkins.pipeline;
 
-import java.util.HashMap;
+import com.github.benmanes.caffeine.cache.Cache;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -43,6 +48,44 @@ public class SonarQubeWebHookTest {
     assertThat(aut.getUrlName()).isNotNull();
   }
 
+  @WithoutJenkins
+  @Test
+  public void eventCacheIsBoundedByCountAndPayloadSize() {
+    Cache<String, SonarQubeWebHook.WebhookEvent> cache = SonarQubeWebHook.buildEventCache(60, 3, 3000);
+
+    for (int i = 0; i < 10; i++) {
+      cache.put("task" + i, createEvent("task" + i, null));
+    }
+    cache.cleanUp();
+    assertThat(cache.estimatedSize()).isEqualTo(3);
+
+    cache.invalidateAll();
+    cache.put("signed", createEvent("signed", new byte[2500]));
+    cache.put("unsigned", createEvent("unsigned", null));
+    cache.cleanUp();
+    assertThat(cache.estimatedSize()).isEqualTo(1);
+    assertThat(cache.stats().evictionCount()).isEqualTo(8);
+  }
+
+  @WithoutJenkins
+  @Test
+  public void eventsExpireAfterTheirReception() {
+    Cache<String, SonarQubeWebHook.WebhookEvent> cache = SonarQubeWebHook.buildEventCache(60, 10, 10_000);
+    long now = System.currentTimeMillis();
+
+    // as when the cache is rebuilt, or the journal replayed
+    cache.put("recent", new SonarQubeWebHook.WebhookEvent(createEvent("recent", null).getPayload(), null, now - TimeUnit.MINUTES.toMillis(30)));
+    cache.put("old", new SonarQubeWebHook.WebhookEvent(createEvent("old", null).getPayload(), null, now - TimeUnit.MINUTES.toMillis(61)));
+
+    assertThat(cache.getIfPresent("recent")).isNotNull();
+    assertThat(cache.getIfPresent("old")).isNull();
+  }
+
+  private static SonarQubeWebHook.WebhookEvent createEvent(String taskId, byte[] rawPayload) {
+    SonarQubeWebHook.Payload payload = new SonarQubeWebHook.Payload(rawPayload, Map.of("taskId", taskId, "status", "SUCCESS", "project.name", "foo", "project.url", "http://localhost:9000/dashboard?id=foo"));
+    return new SonarQubeWebHook.WebhookEvent(payload, rawPayload != null ? "signature" : null);
+  }
+
   @Test(expected = Exception.class)
   public void invalidPayload() throws Exception {
     jenkins.postJSON("sonarqube-webhook/", "foo");
@@ -51,7 +94,8 @@ public class SonarQubeWebHookTest {
   @Test
   public void testListener() throws Exception {
 
-    Map<String, String> eventsPerListener = new HashMap<>();
+    // listeners are notified asynchronously, possibly of an event received before they were added
+    Map<String, List<String>> eventsPerListener = new ConcurrentHashMap<>();
 
     jenkins.postJSON("sonarqube-webhook/", "{\n" +
       "\"taskId\":\"AVpBJY0hh5C8Sya1ZSgH\",\n" +
@@ -60,10 +104,10 @@ public class SonarQubeWebHookTest {
       "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
 
-    SonarQubeWebHook.get().addListener(
-      event -> eventsPerListener.put("ListenerA", event.getPayload().getTaskId() + event.getPayload().getTaskStatus() + event.getPayload().getQualityGateStatus()));
-    SonarQubeWebHook.get().addListener(
-      event -> eventsPerListener.put("ListenerB", event.getPayload().getTaskId() + event.getPayload().getTaskStatus() + event.getPayload().getQualityGateStatus()));
+    SonarQubeWebHook.get().addListener(event -> eventsPerListener.computeIfAbsent("ListenerA", k -> new CopyOnWriteArrayList<>())
+      .add(event.getPayload().getTaskId() + event.getPayload().getTaskStatus() + event.getPayload().getQualityGateStatus()));
+    SonarQubeWebHook.get().addListener(event -> eventsPerListener.computeIfAbsent("ListenerB", k -> new CopyOnWriteArrayList<>())
+      .add(event.getPayload().getTaskId() + event.getPayload().getTaskStatus() + event.getPayload().getQualityGateStatus()));
 
     jenkins.postJSON("sonarqube-webhook/", "{\n" +
       "\"taskId\":\"AVpBJY0hh5C8Sya1ZSgH\",\n" +
@@ -72,10 +116,9 @@ public class SonarQubeWebHookTest {
       "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
 
-    assertThat(eventsPerListener).containsOnly(entry("ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK"),
-      entry("ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK"));
-
-    eventsPerListener.clear();
+    waitForEvent(eventsPerListener, "ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK");
+    waitForEvent(eventsPerListener, "ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSOK");
+    assertThat(eventsPerListener).containsOnlyKeys("ListenerA", "ListenerB");
 
     // No quality gate defined
     jenkins.postJSON("sonarqube-webhook/", "{\n" +
@@ -84,8 +127,47 @@ public class SonarQubeWebHookTest {
      "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
       "}");
 
-    assertThat(eventsPerListener).containsOnly(entry("ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE"),
-      entry("ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE"));
+    waitForEvent(eventsPerListener, "ListenerA", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE");
+    waitForEvent(eventsPerListener, "ListenerB", "AVpBJY0hh5C8Sya1ZSgHSUCCESSNONE");
+  }
+
+  @Test
+  public void testListenerForTask() throws Exception {
+    Map<String, String> eventsPerListener = new ConcurrentHashMap<>();
+    Consumer<SonarQubeWebHook.WebhookEvent> listenerA = event -> eventsPerListener.put("ListenerA",
+      event.getPayload().getTaskId() + " " + event.getPayload().getDashboardUrl());
+    Consumer<SonarQubeWebHook.WebhookEvent> listenerB = event -> eventsPerListener.put("ListenerB", event.getPayload().getTaskId());
+    SonarQubeWebHook.get().addListener("taskA", listenerA);
+    SonarQubeWebHook.get().addListener("taskB", listenerB);
+
+    jenkins.postJSON("sonarqube-webhook/", "{\n" +
+      "\"taskId\":\"taskA\",\n" +
+      "\"status\":\"SUCCESS\",\n" +
+      "\"project\": {\"name\": \"foo\", \"url\": \"http://localhost:9000/dashboard?id=foo\"}\n" +
+      "}");
+
+    waitForEvents(eventsPerListener, 1);
+    assertThat(eventsPerListener).containsOnly(entry("ListenerA", "taskA http://localhost:9000/dashboard?id=foo"));
+
+    SonarQubeWebHook.get().removeListener("taskA", listenerA);
+    SonarQubeWebHook.get().removeListener("taskB", listenerB);
+    assertThat(SonarQubeWebHook.get().listeners).isEmpty();
+  }
+
+  private static void waitForEvent(Map<String, List<String>> eventsPerListener, String listener, String expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!eventsPerListener.getOrDefault(listener, List.of()).contains(expected) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(eventsPerListener.get(listener)).contains(expected);
+  }
+
+  private static void waitForEvents(Map<String, String> eventsPerListener, int expected) throws InterruptedException {
+    // listeners are notified asynchronously
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (eventsPerListener.size() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
   }
 
 }
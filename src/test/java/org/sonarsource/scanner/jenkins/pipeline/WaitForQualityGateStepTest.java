@@ -30,6 +30,7 @@ import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.plugins.sonar.SonarGlobalConfiguration;
 import hudson.plugins.sonar.SonarInstallation;
+import hudson.plugins.sonar.client.ProjectInformation;
 import hudson.plugins.sonar.utils.SonarUtils;
 import hudson.util.Secret;
 import edu.umd.cs.findbugs.annotations.Nullable;
@@ -60,6 +61,8 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -324,6 +327,66 @@ public class WaitForQualityGateStepTest {
     });
   }
 
+  @Test
+  public void finishEarly_uses_quality_gate_of_received_webhook() {
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        handler.status1 = "SUCCESS";
+        handler.analysisId1 = FAKE_ANALYSIS_ID_1;
+        // would fail the pipeline if requested
+        handler.qgStatus1 = "KO";
+        handler.taskRequested = new CountDownLatch(1);
+        handler.taskReleased = new CountDownLatch(1);
+        try {
+          QueueTaskFuture<WorkflowRun> pipeline = submitPipeline(false, false);
+          pipeline.waitForStart();
+          // the webhook is received before the step learns that the task succeeded
+          assertThat(handler.taskRequested.await(60, TimeUnit.SECONDS)).isTrue();
+          submitWebHook(FAKE_TASK_ID_1, "SUCCESS", "OK");
+          handler.taskReleased.countDown();
+
+          story.j.assertBuildStatusSuccess(pipeline);
+        } finally {
+          handler.taskReleased.countDown();
+          handler.taskRequested = null;
+          handler.taskReleased = null;
+        }
+      }
+    });
+  }
+
+  @Test
+  public void webhook_received_during_initial_check_completes_the_step_once() {
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        handler.status1 = "SUCCESS";
+        handler.analysisId1 = FAKE_ANALYSIS_ID_1;
+        handler.qgStatus1 = "OK";
+        handler.taskRequested = new CountDownLatch(1);
+        handler.taskReleased = new CountDownLatch(1);
+        try {
+          QueueTaskFuture<WorkflowRun> pipeline = submitPipeline(false, false);
+          WorkflowRun b = pipeline.waitForStart();
+          assertThat(handler.taskRequested.await(60, TimeUnit.SECONDS)).isTrue();
+
+          submitWebHook(FAKE_TASK_ID_1, "SUCCESS", "OK", b);
+          story.j.assertBuildStatusSuccess(pipeline);
+
+          // let the initial check complete too
+          handler.taskReleased.countDown();
+          waitForChecks();
+          assertThat(b.getActions(ProjectInformation.class)).hasSize(1);
+        } finally {
+          handler.taskReleased.countDown();
+          handler.taskRequested = null;
+          handler.taskReleased = null;
+        }
+      }
+    });
+  }
+
   @Test
   public void finishEarlyKo() {
     story.addStep(new Statement() {
@@ -399,6 +462,25 @@ public class WaitForQualityGateStepTest {
     });
   }
 
+  @Test
+  public void webhook_events_survive_restart() {
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        submitWebHook("another task", "SUCCESS", "OK");
+        assertThat(SonarQubeWebHook.get().getWebhookEventForTaskId("another task")).isNotNull();
+      }
+    });
+    story.addStep(new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        SonarQubeWebHook.WebhookEvent event = SonarQubeWebHook.get().getWebhookEventForTaskId("another task");
+        assertThat(event).isNotNull();
+        assertThat(event.getPayload().getQualityGateStatus()).isEqualTo("OK");
+      }
+    });
+  }
+
   private void addWebhookSecretToCredentials(String secret) {
     story.addStep(new Statement() {
       @Override
@@ -450,6 +532,14 @@ public class WaitForQualityGateStepTest {
   }
 
 
+  private static void waitForChecks() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (WaitForQualityGateStep.pendingChecks() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(WaitForQualityGateStep.pendingChecks()).isZero();
+  }
+
   private void waitForStepToWait(WorkflowRun b) throws InterruptedException {
     // Wait for the step to register to the webhook listener
     while (SonarQubeWebHook.get().listeners.isEmpty() && b.isBuilding()) {
@@ -568,6 +658,11 @@ public class WaitForQualityGateStepTest {
     String status2 = "PENDING";
     String analysisId2 = null;
     String qgStatus2 = null;
+    /**
+     * When set, the responses to the CE task requests wait for the test.
+     */
+    volatile CountDownLatch taskRequested;
+    volatile CountDownLatch taskReleased;
 
     @Override
     public void handle(HttpExchange t) throws IOException {
@@ -576,6 +671,7 @@ public class WaitForQualityGateStepTest {
         return;
       }
       if (t.getRequestURI().getPath().equals("/sonarqube/api/ce/task")) {
+        awaitRelease();
         if (t.getRequestURI().getQuery().equals("id=" + FAKE_TASK_ID_1)) {
           response(t, 200, "{ task: {\"componentKey\": \"project_1\","
             + "\"componentName\": \"Project One\","
@@ -604,6 +700,19 @@ public class WaitForQualityGateStepTest {
       response(t, 404, "not found");
     }
 
+    private void awaitRelease() {
+      CountDownLatch requested = taskRequested;
+      CountDownLatch released = taskReleased;
+      if (requested != null && released != null) {
+        requested.countDown();
+        try {
+          released.await(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
     private void response(HttpExchange t, int code, String body) throws IOException {
       t.sendResponseHeaders(code, body.length());
       OutputStream os = t.getResponseBody();
@@ -0,0 +1,109 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookEventJournalTest {
+  private static final Duration SEGMENT_PERIOD = Duration.ofMinutes(10);
+  private static final Duration MAX_AGE = Duration.ofMinutes(60);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final MutableClock clock = new MutableClock();
+
+  @Test
+  public void events_are_replayed_by_a_new_journal() throws IOException {
+    File dir = temp.newFolder();
+    WebhookEventJournal journal = new WebhookEventJournal(dir, SEGMENT_PERIOD, clock);
+    journal.append(createEvent("task1", "SUCCESS", "OK", null, null), MAX_AGE);
+    clock.advance(Duration.ofMinutes(15));
+    journal.append(createEvent("task2", "FAILED", null, "signature", new byte[] {1, 2, 3}), MAX_AGE);
+    journal.close();
+
+    List<SonarQubeWebHook.WebhookEvent> events = replay(new WebhookEventJournal(dir, SEGMENT_PERIOD, clock));
+
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0).getPayload().getTaskId()).isEqualTo("task1");
+    assertThat(events.get(0).getPayload().getQualityGateStatus()).isEqualTo("OK");
+    assertThat(events.get(0).getPayload().getRawPayload()).isNull();
+    assertThat(events.get(0).getReceivedSignature()).isNull();
+    assertThat(events.get(1).getPayload().getTaskId()).isEqualTo("task2");
+    assertThat(events.get(1).getPayload().getTaskStatus()).isEqualTo("FAILED");
+    assertThat(events.get(1).getPayload().getComponentName()).isEqualTo("foo");
+    assertThat(events.get(1).getPayload().getDashboardUrl()).isEqualTo("http://localhost:9000/dashboard?id=foo");
+    assertThat(events.get(1).getPayload().getQualityGateStatus()).isNull();
+    assertThat(events.get(1).getPayload().getRawPayload()).containsExactly(1, 2, 3);
+    assertThat(events.get(1).getReceivedSignature()).isEqualTo("signature");
+  }
+
+  @Test
+  public void old_events_are_skipped_and_compacted() throws IOException {
+    File dir = temp.newFolder();
+    WebhookEventJournal journal = new WebhookEventJournal(dir, SEGMENT_PERIOD, clock);
+    journal.append(createEvent("old", "SUCCESS", "OK", null, null), MAX_AGE);
+    clock.advance(Duration.ofMinutes(65));
+    journal.append(createEvent("recent", "SUCCESS", "OK", null, null), MAX_AGE);
+
+    List<SonarQubeWebHook.WebhookEvent> events = replay(journal);
+    assertThat(events).extracting(e -> e.getPayload().getTaskId()).containsExactly("recent");
+
+    clock.advance(Duration.ofMinutes(10));
+    journal.compact(MAX_AGE);
+    assertThat(dir.list()).hasSize(1);
+  }
+
+  @Test
+  public void truncated_event_is_ignored() throws IOException {
+    File dir = temp.newFolder();
+    WebhookEventJournal journal = new WebhookEventJournal(dir, SEGMENT_PERIOD, clock);
+    journal.append(createEvent("task1", "SUCCESS", "OK", null, null), MAX_AGE);
+    journal.append(createEvent("task2", "SUCCESS", "OK", null, null), MAX_AGE);
+    journal.close();
+
+    File segment = dir.listFiles()[0];
+    byte[] content = Files.readAllBytes(segment.toPath());
+    Files.write(segment.toPath(), Arrays.copyOf(content, content.length - 3));
+
+    assertThat(replay(journal)).extracting(e -> e.getPayload().getTaskId()).containsExactly("task1");
+  }
+
+  private static List<SonarQubeWebHook.WebhookEvent> replay(WebhookEventJournal journal) {
+    List<SonarQubeWebHook.WebhookEvent> events = new ArrayList<>();
+    journal.replay(MAX_AGE, events::add);
+    return events;
+  }
+
+  private static SonarQubeWebHook.WebhookEvent createEvent(String taskId, String status, String qgStatus, String signature, byte[] raw) {
+    return new SonarQubeWebHook.WebhookEvent(new SonarQubeWebHook.Payload(raw, taskId, status, "foo", "http://localhost:9000/dashboard?id=foo", qgStatus), signature);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * SonarQube Scanner for Jenkins
+ * Copyright (C) 2007-2025 SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.scanner.jenkins.pipeline;
+
+import com.cloudbees.plugins.credentials.CredentialsParameterDefinition;
+import com.cloudbees.plugins.credentials.CredentialsParameterValue;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.util.Secret;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebhookSecretCacheTest {
+  private static final byte[] PAYLOAD = "{\"taskId\":\"task1\"}".getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void signatures_are_checked_with_the_cached_secret() throws Exception {
+    CredentialsStore store = CredentialsProvider.lookupStores(j.jenkins).iterator().next();
+    store.addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretId", null, Secret.fromString("secret")));
+    FreeStyleBuild build = j.buildAndAssertSuccess(j.createFreeStyleProject());
+
+    WebhookSecretCache cache = new WebhookSecretCache(Duration.ofMinutes(5));
+    WebhookSecretCache.WebhookSecret secret = cache.get("secretId", build);
+    assertThat(secret).isNotNull();
+    assertThat(cache.get("secretId", build)).isSameAs(secret);
+    assertThat(cache.get("unknown", build)).isNull();
+
+    assertThat(secret.isValidSignature(sign("secret", PAYLOAD), PAYLOAD)).isTrue();
+    // twice, to go through a clone of the initialized Mac again
+    assertThat(secret.isValidSignature(sign("secret", PAYLOAD), PAYLOAD)).isTrue();
+    assertThat(secret.isValidSignature(sign("secret", PAYLOAD).toUpperCase(), PAYLOAD)).isTrue();
+    assertThat(secret.isValidSignature(sign("other", PAYLOAD), PAYLOAD)).isFalse();
+    assertThat(secret.isValidSignature("not hex", PAYLOAD)).isFalse();
+    assertThat(secret.isValidSignature(null, PAYLOAD)).isFalse();
+    assertThat(secret.isValidSignature(sign("secret", PAYLOAD), null)).isFalse();
+  }
+
+  @Test
+  public void secrets_are_resolved_again_when_credentials_change() throws Exception {
+    CredentialsStore store = CredentialsProvider.lookupStores(j.jenkins).iterator().next();
+    StringCredentialsImpl credentials = new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretId", null, Secret.fromString("secret"));
+    store.addCredentials(Domain.global(), credentials);
+    FreeStyleProject project = j.createFreeStyleProject();
+    FreeStyleBuild build = j.buildAndAssertSuccess(project);
+
+    WebhookSecretCache cache = WebhookSecretCache.get();
+    assertThat(cache.get("secretId", build)).isNotNull();
+
+    store.updateCredentials(Domain.global(), credentials, new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretId", null, Secret.fromString("changed")));
+
+    assertThat(cache.get("secretId", build).isValidSignature(sign("changed", PAYLOAD), PAYLOAD)).isTrue();
+  }
+
+  @Test
+  public void secrets_are_kept_when_jobs_are_saved() throws Exception {
+    CredentialsStore store = CredentialsProvider.lookupStores(j.jenkins).iterator().next();
+    store.addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretId", null, Secret.fromString("secret")));
+    FreeStyleProject project = j.createFreeStyleProject();
+    FreeStyleBuild build = j.buildAndAssertSuccess(project);
+
+    WebhookSecretCache cache = WebhookSecretCache.get();
+    WebhookSecretCache.WebhookSecret secret = cache.get("secretId", build);
+    project.setDescription("changed");
+    j.createFreeStyleProject().save();
+
+    assertThat(cache.get("secretId", build)).isSameAs(secret);
+  }
+
+  @Test
+  public void secrets_from_parameters_are_resolved_for_each_run() throws Exception {
+    CredentialsStore store = CredentialsProvider.lookupStores(j.jenkins).iterator().next();
+    store.addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretA", null, Secret.fromString("a")));
+    store.addCredentials(Domain.global(), new StringCredentialsImpl(CredentialsScope.GLOBAL, "secretB", null, Secret.fromString("b")));
+    FreeStyleProject project = j.createFreeStyleProject();
+    project.addProperty(new ParametersDefinitionProperty(new CredentialsParameterDefinition("SECRET", null, "secretA", StringCredentialsImpl.class.getName(), false)));
+    FreeStyleBuild buildA = j.assertBuildStatusSuccess(project.scheduleBuild2(0, new ParametersAction(new CredentialsParameterValue("SECRET", "secretA", null))));
+    FreeStyleBuild buildB = j.assertBuildStatusSuccess(project.scheduleBuild2(0, new ParametersAction(new CredentialsParameterValue("SECRET", "secretB", null))));
+
+    WebhookSecretCache cache = new WebhookSecretCache(Duration.ofMinutes(5));
+
+    assertThat(cache.get("${SECRET}", buildA).isValidSignature(sign("a", PAYLOAD), PAYLOAD)).isTrue();
+    assertThat(cache.get("${SECRET}", buildB).isValidSignature(sign("b", PAYLOAD), PAYLOAD)).isTrue();
+    assertThat(cache.size()).isZero();
+  }
+
+  private static String sign(String secret, byte[] payload) {
+    return new HmacUtils(HmacAlgorithms.HMAC_SHA_256, secret).hmacHex(payload);
+  }
+}